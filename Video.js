@@ -1,14 +1,116 @@
 import React, {Component, PropTypes} from "react";
-import {requireNativeComponent, View} from "react-native";
+import {DeviceEventEmitter, findNodeHandle, NativeModules, requireNativeComponent, UIManager, View} from "react-native";
+
+const {NMVideo} = NativeModules;
 
 export default class Video extends Component {
 
+	constructor(props) {
+		super(props);
+		this.assignRoot = this.assignRoot.bind(this);
+		this.onVideoEvents = this.onVideoEvents.bind(this);
+	}
+
 	assignRoot(component) {
 		this.root = component;
 	}
 
+	dispatchCommand(command, args = []) {
+		if (this.root) {
+			UIManager.dispatchViewManagerCommand(
+				findNodeHandle(this.root),
+				UIManager.RCTNMVideo.Commands[command],
+				args
+			);
+		}
+	}
+
+	play() {
+		this.dispatchCommand("play");
+	}
+
+	pause() {
+		this.dispatchCommand("pause");
+	}
+
+	/**
+	 * Seeks to `positionMs`. Pass `isFinal` false while the position is still changing, e.g. while a remote key is held
+	 * down, to have the seeks coalesced, and end with a final one.
+	 */
+	seek(positionMs, isFinal = true) {
+		this.dispatchCommand("seek", [positionMs, isFinal]);
+	}
+
+	stop() {
+		this.dispatchCommand("stop");
+	}
+
+	/**
+	 * Selects the audio track in `language`.
+	 */
+	selectAudio(language) {
+		this.dispatchCommand("selectAudio", [language]);
+	}
+
+	/**
+	 * Shows the subtitles in `language`, or hides them when it is null.
+	 */
+	selectSubtitle(language) {
+		this.dispatchCommand("selectSubtitle", [language === undefined ? null : language]);
+	}
+
+	onVideoEvents(event) {
+		event.nativeEvent.events.forEach((nativeEvent) => {
+			switch (nativeEvent.type) {
+				case "playerState":
+					if (this.props.onPlayerStateChange) {
+						this.props.onPlayerStateChange({state: nativeEvent.playerState});
+					}
+					break;
+				case "playlistItem":
+					if (this.props.onPlaylistItemChange) {
+						this.props.onPlaylistItemChange({index: nativeEvent.playlistIndex});
+					}
+					break;
+				case "liveLatency":
+					if (this.props.onLiveLatency) {
+						this.props.onLiveLatency({latency: nativeEvent.liveLatency});
+					}
+					break;
+				case "progress":
+					if (this.props.onProgress) {
+						this.props.onProgress({currentTime: nativeEvent.currentTime, duration: nativeEvent.duration});
+					}
+					break;
+				case "buffer":
+					if (this.props.onBuffer) {
+						this.props.onBuffer({
+							isLoading: nativeEvent.isLoading,
+							bufferedPercentage: nativeEvent.bufferedPercentage
+						});
+					}
+					break;
+				case "bandwidth":
+					if (this.props.onBandwidth) {
+						this.props.onBandwidth({bitrate: nativeEvent.bitrate});
+					}
+					break;
+				case "error":
+					if (this.props.onError) {
+						this.props.onError({error: nativeEvent.error});
+					}
+					break;
+			}
+			if (this.props.onChange) {
+				this.props.onChange({nativeEvent});
+			}
+		});
+	}
+
 	render() {
-		const nativeProps = Object.assign({}, this.props);
+		const nativeProps = Object.assign({}, this.props, {
+			onVideoEvents: this.onVideoEvents
+		});
 
 		return (
 			<RCTNMVideo
@@ -19,7 +121,226 @@ export default class Video extends Component {
 	}
 }
 
+/**
+ * Sets how many idle players are kept ready for new views and how long (ms) they are kept (Android).
+ */
+Video.configurePlayerPool = (maxSize, idleTimeoutMs) => {
+	if (NMVideo) {
+		NMVideo.configurePlayerPool(maxSize, idleTimeoutMs);
+	}
+};
+
+/**
+ * Creates up to `count` idle players ahead of time, e.g. before showing a feed (Android).
+ */
+Video.prewarmPlayers = (count) => {
+	if (NMVideo) {
+		NMVideo.prewarmPlayers(count);
+	}
+};
+
+/**
+ * Sets how many views may decode at the same time, views beyond it are parked until one stops (Android, default `4`).
+ */
+Video.setMaxActiveDecoders = (maxActive) => {
+	if (NMVideo) {
+		NMVideo.setMaxActiveDecoders(maxActive);
+	}
+};
+
+/**
+ * Fetches and parses the DASH/HLS/SmoothStreaming manifests of upcoming items in the background (Android).
+ */
+Video.prefetchManifests = (urls) => {
+	if (NMVideo) {
+		NMVideo.prefetchManifests(urls);
+	}
+};
+
+/**
+ * Sets how long (ms) cached VOD and live manifests stay fresh (Android, defaults `300000` and `2000`).
+ */
+Video.setManifestCacheTtl = (vodTtlMs, liveTtlMs) => {
+	if (NMVideo) {
+		NMVideo.setManifestCacheTtl(vodTtlMs, liveTtlMs);
+	}
+};
+
+/**
+ * Resolves to the hit, miss and eviction counters of the media cache, or null if no view has set
+ * mediaCacheSize (Android).
+ */
+Video.getMediaCacheStats = () => (NMVideo ? NMVideo.getMediaCacheStats() : Promise.resolve(null));
+
+/**
+ * Resets the counters returned by getMediaCacheStats (Android).
+ */
+Video.resetMediaCacheStats = () => {
+	if (NMVideo) {
+		NMVideo.resetMediaCacheStats();
+	}
+};
+
+/**
+ * Sets how often (ms) all players are sampled for onProgress and onBuffer (Android, default `250`).
+ */
+Video.setProgressInterval = (intervalMs) => {
+	if (NMVideo) {
+		NMVideo.setProgressInterval(intervalMs);
+	}
+};
+
+/**
+ * Tunes the HTTP connection pool shared by all players (Android).
+ */
+Video.configureHttp = (maxIdleConnections, keepAliveMs, maxConnectionsPerHost, dnsTtlMs) => {
+	if (NMVideo) {
+		NMVideo.configureHttp(maxIdleConnections, keepAliveMs, maxConnectionsPerHost, dnsTtlMs);
+	}
+};
+
+/**
+ * Bounds the DRM sessions kept open for reuse across players and how long (ms) idle ones are kept (Android).
+ */
+Video.configureDrmSessions = (maxOpenSessions, idleTimeoutMs) => {
+	if (NMVideo) {
+		NMVideo.configureDrmSessions(maxOpenSessions, idleTimeoutMs);
+	}
+};
+
+/**
+ * Queues a download of `url` for offline playback (Android). `options` may set `maxVideoBitrate`,
+ * `drmScheme`, `drmLicenseUrl` and `keyRequestProperties`.
+ */
+Video.downloadStream = (url, options = {}) => {
+	if (NMVideo) {
+		NMVideo.downloadStream(url, options);
+	}
+};
+
+/**
+ * Cancels the download of `url` and deletes its files (Android).
+ */
+Video.removeDownload = (url) => {
+	if (NMVideo) {
+		NMVideo.removeDownload(url);
+	}
+};
+
+/**
+ * Resolves to the list of downloads and their progress (Android).
+ */
+Video.getDownloads = () => (NMVideo ? NMVideo.getDownloads() : Promise.resolve([]));
+
+/**
+ * Sets the storage in bytes all downloads may take together, 0 for no limit (Android).
+ */
+Video.setDownloadQuota = (quotaBytes) => {
+	if (NMVideo) {
+		NMVideo.setDownloadQuota(quotaBytes);
+	}
+};
+
+/**
+ * Sets how many downloads run at the same time (Android, default `2`).
+ */
+Video.setMaxParallelDownloads = (maxParallelDownloads) => {
+	if (NMVideo) {
+		NMVideo.setMaxParallelDownloads(maxParallelDownloads);
+	}
+};
+
+/**
+ * Calls `listener` with `{url, state, downloadedSegments, segmentCount, downloadedBytes, error}` as downloads
+ * progress (Android). Returns a subscription with a `remove()` method.
+ */
+Video.addDownloadListener = (listener) => DeviceEventEmitter.addListener("NMVideoDownload", listener);
+
 Video.propTypes = {
+	src: PropTypes.string,
+
+	/* Whether src resumes where it was last stopped, true by default */
+	resumePosition: PropTypes.bool,
+
+	/* DRM of src or playlist: scheme, licenseUrl and keyRequestProperties */
+	drm: PropTypes.shape({
+		scheme: PropTypes.string,
+		licenseUrl: PropTypes.string,
+		keyRequestProperties: PropTypes.object,
+	}),
+
+	/* Streams played back to back as one timeline, replaces src */
+	playlist: PropTypes.arrayOf(PropTypes.string),
+
+	/* Number of items after the current one prepared ahead */
+	playlistPreloadWindow: PropTypes.number,
+
+	/* Called with {index} whenever playback moves to another playlist item */
+	onPlaylistItemChange: PropTypes.func,
+
+	/* Channels likely to be switched to next, most likely first, preloaded for instant zapping */
+	zapNeighbours: PropTypes.arrayOf(PropTypes.string),
+
+	/* Preloaded media per neighbour (ms) and buffer memory shared by all neighbours (MB) */
+	zapConfig: PropTypes.shape({
+		preloadMs: PropTypes.number,
+		memoryBudgetMb: PropTypes.number
+	}),
+
+	/* Size of the on-disk media cache in MB, 0 disables it */
+	mediaCacheSize: PropTypes.number,
+
+	/* Maximum number of parallel range requests for progressive streams, 0 uses one connection */
+	parallelConnections: PropTypes.number,
+
+	/* How the video bitrate adapts, set before src */
+	abrPolicy: PropTypes.oneOf(["throughput", "buffer"]),
+
+	/* Caps the video resolution to the view size times this factor, 0 disables the cap */
+	resolutionCapFactor: PropTypes.number,
+
+	/* Distance from the live edge (ms) live streams are kept at, 0 plays from the default position */
+	liveTargetLatency: PropTypes.number,
+
+	/* How far (ms) beyond liveTargetLatency playback may fall behind before it seeks back */
+	liveMaxDrift: PropTypes.number,
+
+	/* Called with {latency} in ms about once a second while a live stream plays */
+	onLiveLatency: PropTypes.func,
+
+	/* Called with {state}, one of the player states such as "playing", "paused" or "playbackCompleted" */
+	onPlayerStateChange: PropTypes.func,
+
+	/* Called with {currentTime, duration} in ms while playing, at most once per eventThrottle */
+	onProgress: PropTypes.func,
+
+	/* Called with {isLoading, bufferedPercentage}, at most once per eventThrottle */
+	onBuffer: PropTypes.func,
+
+	/* Called with {bitrate}, the bandwidth estimate in bits per second, at most once per eventThrottle */
+	onBandwidth: PropTypes.func,
+
+	/* Called with {error} when playback fails */
+	onError: PropTypes.func,
+
+	/* Called with every native event, {nativeEvent: {type, ...}} */
+	onChange: PropTypes.func,
+
+	/* How often (ms) onProgress, onBuffer and onBandwidth are called at most, default 250 */
+	eventThrottle: PropTypes.number,
+
+	/* Named buffering profile, takes effect by rebuilding the player */
+	bufferingProfile: PropTypes.oneOf(["default", "fastStart", "lowLatencyLive", "lowMemory"]),
+
+	/* Custom buffering thresholds, missing keys are derived from the given ones and the ExoPlayer defaults */
+	bufferConfig: PropTypes.shape({
+		minBufferMs: PropTypes.number,
+		maxBufferMs: PropTypes.number,
+		bufferForPlaybackMs: PropTypes.number,
+		bufferForPlaybackAfterRebufferMs: PropTypes.number,
+		segmentSize: PropTypes.number
+	}),
+
 	/* Required by react-native */
 	scaleX: PropTypes.number,
 	scaleY: PropTypes.number,
@@ -0,0 +1,119 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class ContentTypeProbeTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void classifiesManifestContentTypes() {
+        assertEquals(C.TYPE_DASH, ContentTypeProbe.classify("application/dash+xml", null));
+        assertEquals(C.TYPE_HLS, ContentTypeProbe.classify("application/vnd.apple.mpegurl", null));
+        assertEquals(C.TYPE_HLS, ContentTypeProbe.classify("audio/x-mpegurl", null));
+        assertEquals(C.TYPE_SS, ContentTypeProbe.classify("application/vnd.ms-sstr+xml", null));
+    }
+
+    @Test
+    public void ignoresContentTypeCaseAndParameters() {
+        assertEquals(C.TYPE_HLS, ContentTypeProbe.classify("Application/vnd.apple.mpegURL; charset=UTF-8", null));
+        assertEquals(C.TYPE_DASH, ContentTypeProbe.classify(" application/dash+xml ;charset=utf-8", null));
+    }
+
+    @Test
+    public void classifiesMediaContentTypesAsProgressive() {
+        assertEquals(C.TYPE_OTHER, ContentTypeProbe.classify("video/mp4", null));
+        assertEquals(C.TYPE_OTHER, ContentTypeProbe.classify("audio/mpeg", null));
+    }
+
+    @Test
+    public void mediaContentTypeWinsOverBody() {
+        assertEquals(C.TYPE_OTHER, ContentTypeProbe.classify("video/mp2t", bytes("#EXTM3U\n")));
+    }
+
+    @Test
+    public void classifiesHlsFromBody() {
+        assertEquals(C.TYPE_HLS, ContentTypeProbe.classify("application/octet-stream",
+                bytes("\n#EXTM3U\n#EXT-X-VERSION:3\n")));
+    }
+
+    @Test
+    public void classifiesDashFromBody() {
+        assertEquals(C.TYPE_DASH, ContentTypeProbe.classify(null,
+                bytes("<?xml version=\"1.0\"?>\n<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\">")));
+    }
+
+    @Test
+    public void classifiesSmoothStreamingFromBody() {
+        assertEquals(C.TYPE_SS, ContentTypeProbe.classify("text/plain",
+                bytes("<?xml version=\"1.0\"?><SmoothStreamingMedia MajorVersion=\"2\">")));
+    }
+
+    @Test
+    public void fallsBackToProgressive() {
+        assertEquals(C.TYPE_OTHER, ContentTypeProbe.classify(null, null));
+        assertEquals(C.TYPE_OTHER, ContentTypeProbe.classify("application/octet-stream",
+                new byte[] {0, 0, 0, 0x18, 'f', 't', 'y', 'p'}));
+    }
+
+    @Test
+    public void keepsPlainPath() {
+        assertEquals("cdn.example.com/live/channel1/index.m3u8",
+                pattern("https://cdn.example.com/live/channel1/index.m3u8"));
+    }
+
+    @Test
+    public void wildcardsIdSegments() {
+        assertEquals("cdn.example.com/vod/*/manifest.mpd",
+                pattern("https://cdn.example.com/vod/123456/manifest.mpd"));
+        assertEquals("cdn.example.com/vod/*/manifest.mpd",
+                pattern("https://cdn.example.com/vod/a1b2c3/manifest.mpd"));
+    }
+
+    @Test
+    public void wildcardsTokenSegments() {
+        assertEquals("cdn.example.com/*/master.m3u8",
+                pattern("https://cdn.example.com/exp=1700000000~acl=abcdef/master.m3u8"));
+        assertEquals("cdn.example.com/*/master.m3u8",
+                pattern("https://cdn.example.com/aGVsbG8gd29ybGQgdG9rZW4/master.m3u8"));
+    }
+
+    @Test
+    public void sortsQueryParametersAndWildcardsTokens() {
+        assertEquals("cdn.example.com/play?a=1&b=2&token=*",
+                pattern("https://cdn.example.com/play?token=abc&b=2&a=1"));
+        assertEquals("cdn.example.com/play?Signature=*&format=hls",
+                pattern("https://cdn.example.com/play?format=hls&Signature=xyz"));
+    }
+
+    @Test
+    public void wildcardsLongQueryValues() {
+        assertEquals("cdn.example.com/play?format=dash&id=*",
+                pattern("https://cdn.example.com/play?format=dash&id=0123456789abcdefXYZ"));
+    }
+
+    @Test
+    public void matchesUrisOfTheSameShape() {
+        assertEquals(pattern("https://cdn.example.com/vod/1001/stream?token=first&quality=hd"),
+                pattern("https://cdn.example.com/vod/2002/stream?quality=hd&token=second"));
+    }
+
+    private static String pattern(String uri) {
+        return ContentTypeProbe.getPattern(Uri.parse(uri));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(UTF_8);
+    }
+}
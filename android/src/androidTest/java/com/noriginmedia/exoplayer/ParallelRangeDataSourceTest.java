@@ -0,0 +1,216 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class ParallelRangeDataSourceTest {
+
+    private static final int FILE_SIZE = 256 * 1024;
+    private static final int CHUNK_SIZE = 4096;
+
+    private byte[] file;
+    private RangeServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new byte[FILE_SIZE];
+        new Random(0).nextBytes(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void readsWholeFileInOrder() throws IOException {
+        server = new RangeServer(file, true, 0);
+        DataSource dataSource = createDataSource(4);
+        assertEquals(FILE_SIZE, dataSource.open(new DataSpec(server.getUri())));
+        assertArrayEquals(file, readToEnd(dataSource));
+        dataSource.close();
+    }
+
+    @Test
+    public void reopenAfterSeekReadsFromNewPosition() throws IOException {
+        // Slow responses keep the workers of each open running into the next one.
+        server = new RangeServer(file, true, 20);
+        DataSource dataSource = createDataSource(4);
+        Random random = new Random(1);
+        for (int i = 0; i < 10; i++) {
+            dataSource.open(new DataSpec(server.getUri()));
+            byte[] head = new byte[3 * CHUNK_SIZE];
+            readFully(dataSource, head);
+            assertArrayEquals(Arrays.copyOf(file, head.length), head);
+            dataSource.close();
+
+            int position = random.nextInt(FILE_SIZE - 4 * CHUNK_SIZE);
+            assertEquals(FILE_SIZE - position, dataSource.open(
+                    new DataSpec(server.getUri(), position, C.LENGTH_UNSET, null)));
+            assertArrayEquals(Arrays.copyOfRange(file, position, FILE_SIZE), readToEnd(dataSource));
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void readsBoundedRange() throws IOException {
+        server = new RangeServer(file, true, 0);
+        DataSource dataSource = createDataSource(3);
+        int position = 10000;
+        int length = 20 * CHUNK_SIZE + 123;
+        assertEquals(length, dataSource.open(new DataSpec(server.getUri(), position, length, null)));
+        assertArrayEquals(Arrays.copyOfRange(file, position, position + length), readToEnd(dataSource));
+        dataSource.close();
+    }
+
+    @Test
+    public void fallsBackToOneConnectionWithoutRangeSupport() throws IOException {
+        server = new RangeServer(file, false, 0);
+        DataSource dataSource = createDataSource(4);
+        dataSource.open(new DataSpec(server.getUri()));
+        assertArrayEquals(file, readToEnd(dataSource));
+        dataSource.close();
+    }
+
+    private static DataSource createDataSource(int maxConnections) {
+        return new ParallelRangeDataSource.Factory(new DefaultHttpDataSourceFactory("test"),
+                maxConnections, CHUNK_SIZE, 4).createDataSource();
+    }
+
+    private static byte[] readToEnd(DataSource dataSource) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1500];
+        int read;
+        while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static void readFully(DataSource dataSource, byte[] data) throws IOException {
+        int filled = 0;
+        while (filled < data.length) {
+            int read = dataSource.read(data, filled, data.length - filled);
+            if (read == C.RESULT_END_OF_INPUT) {
+                throw new IOException("Ended early at " + filled);
+            }
+            filled += read;
+        }
+    }
+
+    /**
+     * A local HTTP server for one file that answers range requests, or ignores them.
+     */
+    private static final class RangeServer implements Runnable {
+
+        private static final Pattern RANGE_PATTERN = Pattern.compile("^range:\\s*bytes=(\\d+)-(\\d*)$");
+
+        private final byte[] file;
+        private final boolean supportsRanges;
+        private final long delayMs;
+        private final ServerSocket serverSocket;
+
+        private RangeServer(byte[] file, boolean supportsRanges, long delayMs) throws IOException {
+            this.file = file;
+            this.supportsRanges = supportsRanges;
+            this.delayMs = delayMs;
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            new Thread(this, "RangeServer").start();
+        }
+
+        private Uri getUri() {
+            return Uri.parse("http://127.0.0.1:" + serverSocket.getLocalPort() + "/video.mp4");
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }).start();
+                } catch (IOException e) {
+                    // Closed.
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                int start = 0;
+                int end = file.length - 1;
+                boolean ranged = false;
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    Matcher matcher = RANGE_PATTERN.matcher(line.trim().toLowerCase());
+                    if (supportsRanges && matcher.matches()) {
+                        ranged = true;
+                        start = Integer.parseInt(matcher.group(1));
+                        if (!matcher.group(2).isEmpty()) {
+                            end = Math.min(end, Integer.parseInt(matcher.group(2)));
+                        }
+                    }
+                }
+                Thread.sleep(delayMs);
+                StringBuilder headers = new StringBuilder();
+                headers.append(ranged ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+                if (ranged) {
+                    headers.append("Content-Range: bytes ").append(start).append('-').append(end)
+                            .append('/').append(file.length).append("\r\n");
+                }
+                headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+                headers.append("Connection: close\r\n\r\n");
+                OutputStream output = socket.getOutputStream();
+                output.write(headers.toString().getBytes("US-ASCII"));
+                output.write(file, start, end - start + 1);
+                output.flush();
+            } catch (IOException | InterruptedException e) {
+                // The client went away, e.g. a cancelled chunk.
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+}
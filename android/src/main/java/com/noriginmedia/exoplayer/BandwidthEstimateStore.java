@@ -0,0 +1,109 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.trackselection.AdaptiveVideoTrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+
+/**
+ * Persists bandwidth estimates per network so the first variant of a new session can be picked
+ * from what the network delivered last time, instead of the conservative library default.
+ * <p>
+ * Estimates are keyed by network type and, when the permissions allow, by the Wi-Fi network.
+ * A stored estimate moves half way back towards the library's
+ * {@link AdaptiveVideoTrackSelection#DEFAULT_MAX_INITIAL_BITRATE} every {@link #HALF_LIFE_MS}, so
+ * an old measurement neither starts above nor far below what a fresh session would, and it is
+ * dropped after {@link #MAX_AGE_MS}.
+ */
+public class BandwidthEstimateStore {
+
+    private static final String PREFS_NAME = "nm_bandwidth_estimates";
+    private static final String KEY_BITRATE = ".bitrate";
+    private static final String KEY_TIME = ".time";
+
+    public static final long HALF_LIFE_MS = 6 * 60 * 60 * 1000L;
+    public static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static BandwidthEstimateStore instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+
+    public static synchronized BandwidthEstimateStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new BandwidthEstimateStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private BandwidthEstimateStore(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the decayed estimate for the current network in bits per second, or
+     * {@link BandwidthMeter#NO_ESTIMATE} if there is none.
+     */
+    public long getInitialBitrate() {
+        String networkKey = getNetworkKey();
+        long bitrate = preferences.getLong(networkKey + KEY_BITRATE, BandwidthMeter.NO_ESTIMATE);
+        if (bitrate == BandwidthMeter.NO_ESTIMATE) {
+            return BandwidthMeter.NO_ESTIMATE;
+        }
+        long ageMs = Math.max(0, System.currentTimeMillis() - preferences.getLong(networkKey + KEY_TIME, 0));
+        if (ageMs > MAX_AGE_MS) {
+            return BandwidthMeter.NO_ESTIMATE;
+        }
+        long defaultBitrate = AdaptiveVideoTrackSelection.DEFAULT_MAX_INITIAL_BITRATE;
+        return defaultBitrate + (long) ((bitrate - defaultBitrate) * Math.pow(0.5, (double) ageMs / HALF_LIFE_MS));
+    }
+
+    /**
+     * Stores {@code bitrate} as the estimate of the current network.
+     */
+    public void save(long bitrate) {
+        if (bitrate == BandwidthMeter.NO_ESTIMATE || bitrate <= 0) {
+            return;
+        }
+        String networkKey = getNetworkKey();
+        preferences.edit()
+                .putLong(networkKey + KEY_BITRATE, bitrate)
+                .putLong(networkKey + KEY_TIME, System.currentTimeMillis())
+                .apply();
+    }
+
+    private String getNetworkKey() {
+        if (!hasPermission(Manifest.permission.ACCESS_NETWORK_STATE)) {
+            return "unknown";
+        }
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return "offline";
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(networkInfo.getType()).append('.').append(networkInfo.getSubtype());
+        if (networkInfo.getType() == ConnectivityManager.TYPE_WIFI
+                && hasPermission(Manifest.permission.ACCESS_WIFI_STATE)) {
+            WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+            if (wifiInfo != null && wifiInfo.getSSID() != null) {
+                key.append('.').append(Integer.toHexString(wifiInfo.getSSID().hashCode()));
+            }
+        }
+        return key.toString();
+    }
+
+    private boolean hasPermission(String permission) {
+        return context.checkCallingOrSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
+    }
+}
@@ -0,0 +1,195 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+import android.os.SystemClock;
+
+/**
+ * An adaptive track selection that picks the bitrate from the buffer level first and the measured
+ * throughput second, after the BBA family of algorithms.
+ * <p>
+ * Below the reservoir the lowest bitrate is played. Above it, buffer levels over the cushion are
+ * mapped linearly onto the bitrate ladder. The selection only moves once the mapped rate has crossed
+ * the next rung up or down, so a buffer that hovers around one level does not make it oscillate.
+ * Switches up are capped by a fraction of the bandwidth estimate, switches down follow the buffer
+ * alone, so a single slow segment does not drop the quality while the buffer still covers it.
+ * Until the buffer first fills past the reservoir, the selection is made from the throughput as in
+ * {@link com.google.android.exoplayer2.trackselection.AdaptiveVideoTrackSelection}.
+ */
+public final class BufferBasedTrackSelection extends BaseTrackSelection {
+
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final BandwidthMeter bandwidthMeter;
+        private final long initialBitrate;
+        private final long reservoirMs;
+        private final long cushionMs;
+        private final float bandwidthFraction;
+
+        /**
+         * @param bandwidthMeter    Provides the throughput estimate.
+         * @param initialBitrate    The estimate used until the meter has one, or
+         *                          {@link BandwidthMeter#NO_ESTIMATE} for {@link #DEFAULT_INITIAL_BITRATE}.
+         * @param reservoirMs       The buffer level below which the lowest bitrate is played.
+         * @param cushionMs         The range of buffer levels above the reservoir that is mapped onto
+         *                          the bitrate ladder.
+         * @param bandwidthFraction The fraction of the bandwidth estimate that switches up may use.
+         */
+        public Factory(BandwidthMeter bandwidthMeter, long initialBitrate, long reservoirMs,
+                       long cushionMs, float bandwidthFraction) {
+            this.bandwidthMeter = bandwidthMeter;
+            this.initialBitrate = initialBitrate != BandwidthMeter.NO_ESTIMATE ? initialBitrate
+                    : DEFAULT_INITIAL_BITRATE;
+            this.reservoirMs = reservoirMs;
+            this.cushionMs = Math.max(1, cushionMs);
+            this.bandwidthFraction = bandwidthFraction;
+        }
+
+        @Override
+        public BufferBasedTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new BufferBasedTrackSelection(group, tracks, bandwidthMeter, initialBitrate,
+                    reservoirMs, cushionMs, bandwidthFraction);
+        }
+    }
+
+    public static final long DEFAULT_INITIAL_BITRATE = 800000;
+    public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+    private final BandwidthMeter bandwidthMeter;
+    private final long initialBitrate;
+    private final long reservoirUs;
+    private final long cushionUs;
+    private final float bandwidthFraction;
+
+    private int selectedIndex;
+    private int reason;
+    private boolean startup;
+
+    private BufferBasedTrackSelection(TrackGroup group, int[] tracks, BandwidthMeter bandwidthMeter,
+                                      long initialBitrate, long reservoirMs, long cushionMs,
+                                      float bandwidthFraction) {
+        super(group, tracks);
+        this.bandwidthMeter = bandwidthMeter;
+        this.initialBitrate = initialBitrate;
+        this.reservoirUs = reservoirMs * 1000;
+        this.cushionUs = cushionMs * 1000;
+        this.bandwidthFraction = bandwidthFraction;
+        startup = true;
+        selectedIndex = determineThroughputIndex(Long.MIN_VALUE);
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        long nowMs = SystemClock.elapsedRealtime();
+        int currentIndex = selectedIndex;
+        if (startup && bufferedDurationUs >= reservoirUs) {
+            startup = false;
+        }
+        int newIndex;
+        if (startup) {
+            newIndex = determineThroughputIndex(nowMs);
+        } else {
+            newIndex = determineBufferIndex(bufferedDurationUs, nowMs);
+            // Formats are sorted by decreasing bitrate, so a lower index is a switch up.
+            if (newIndex < currentIndex) {
+                newIndex = Math.max(newIndex, determineThroughputIndex(nowMs));
+            }
+        }
+        if (isBlacklisted(newIndex, nowMs)) {
+            newIndex = lowestAllowedIndex(nowMs);
+        }
+        if (newIndex != currentIndex) {
+            selectedIndex = newIndex;
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+
+    /**
+     * Returns the index the rate map points at, or the current one if the mapped rate has not
+     * crossed the next rung in either direction.
+     */
+    private int determineBufferIndex(long bufferedDurationUs, long nowMs) {
+        if (bufferedDurationUs < reservoirUs) {
+            return lowestAllowedIndex(nowMs);
+        }
+        long minBitrate = getFormat(length - 1).bitrate;
+        long maxBitrate = getFormat(0).bitrate;
+        float fraction = Math.min(1f, (float) (bufferedDurationUs - reservoirUs) / cushionUs);
+        long mappedBitrate = minBitrate + (long) ((maxBitrate - minBitrate) * fraction);
+
+        int currentBitrate = getFormat(selectedIndex).bitrate;
+        int upperBitrate = selectedIndex > 0 ? getFormat(selectedIndex - 1).bitrate : currentBitrate;
+        int lowerBitrate = selectedIndex < length - 1 ? getFormat(selectedIndex + 1).bitrate
+                : currentBitrate;
+        if (mappedBitrate >= upperBitrate && selectedIndex > 0) {
+            // The highest rung below the mapped rate, but at least one up.
+            for (int i = 0; i < selectedIndex; i++) {
+                if (getFormat(i).bitrate < mappedBitrate && !isBlacklisted(i, nowMs)) {
+                    return i;
+                }
+            }
+            return selectedIndex - 1;
+        } else if (mappedBitrate <= lowerBitrate && selectedIndex < length - 1) {
+            // The lowest rung above the mapped rate, but at least one down.
+            for (int i = length - 1; i > selectedIndex; i--) {
+                if (getFormat(i).bitrate > mappedBitrate && !isBlacklisted(i, nowMs)) {
+                    return i;
+                }
+            }
+            return selectedIndex + 1;
+        }
+        return selectedIndex;
+    }
+
+    /**
+     * Returns the highest allowed index the bandwidth estimate can sustain.
+     *
+     * @param nowMs The current time, or {@link Long#MIN_VALUE} to ignore blacklisting.
+     */
+    private int determineThroughputIndex(long nowMs) {
+        long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+        long effectiveBitrate = (long) ((bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+                ? initialBitrate : bitrateEstimate) * bandwidthFraction);
+        int lowestAllowedIndex = 0;
+        for (int i = 0; i < length; i++) {
+            if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
+                Format format = getFormat(i);
+                if (format.bitrate <= effectiveBitrate) {
+                    return i;
+                }
+                lowestAllowedIndex = i;
+            }
+        }
+        return lowestAllowedIndex;
+    }
+
+    private int lowestAllowedIndex(long nowMs) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (!isBlacklisted(i, nowMs)) {
+                return i;
+            }
+        }
+        return length - 1;
+    }
+}
@@ -0,0 +1,167 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * Buffering thresholds and allocator segment size used to build the {@link LoadControl} of a
+ * player. Since the load control is fixed when the player is created, players built with one
+ * profile are never reused with another.
+ */
+public final class BufferingProfile {
+
+    public static final String NAME_DEFAULT = "default";
+    public static final String NAME_FAST_START = "fastStart";
+    public static final String NAME_LOW_LATENCY_LIVE = "lowLatencyLive";
+    public static final String NAME_LOW_MEMORY = "lowMemory";
+    public static final String NAME_CUSTOM = "custom";
+
+    /**
+     * The ExoPlayer defaults.
+     */
+    public static final BufferingProfile DEFAULT = new BufferingProfile(NAME_DEFAULT,
+            DefaultLoadControl.DEFAULT_MIN_BUFFER_MS, DefaultLoadControl.DEFAULT_MAX_BUFFER_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+
+    /**
+     * Starts playback on a small buffer, then builds a regular one. Meant for VOD.
+     */
+    public static final BufferingProfile FAST_START = new BufferingProfile(NAME_FAST_START,
+            15000, 30000, 1000, 3000, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+
+    /**
+     * Keeps the buffer short so playback can stay close to the live edge.
+     */
+    public static final BufferingProfile LOW_LATENCY_LIVE = new BufferingProfile(NAME_LOW_LATENCY_LIVE,
+            3000, 8000, 1000, 2000, 32 * 1024);
+
+    /**
+     * Small buffer and small allocations for low-end devices such as set-top boxes.
+     */
+    public static final BufferingProfile LOW_MEMORY = new BufferingProfile(NAME_LOW_MEMORY,
+            5000, 12000, 2000, 4000, 16 * 1024);
+
+    public final String name;
+    public final int minBufferMs;
+    public final int maxBufferMs;
+    public final long bufferForPlaybackMs;
+    public final long bufferForPlaybackAfterRebufferMs;
+    public final int segmentSize;
+
+    private BufferingProfile(String name, int minBufferMs, int maxBufferMs, long bufferForPlaybackMs,
+                             long bufferForPlaybackAfterRebufferMs, int segmentSize) {
+        this.name = name;
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Returns a profile with the given thresholds.
+     *
+     * @param minBufferMs                      The buffer level below which loading always continues.
+     * @param maxBufferMs                      The buffer level above which loading stops.
+     * @param bufferForPlaybackMs              The buffer needed to start or resume playback after a seek.
+     * @param bufferForPlaybackAfterRebufferMs The buffer needed to resume playback after a rebuffer.
+     * @param segmentSize                      The size of each allocator segment in bytes.
+     */
+    public static BufferingProfile custom(int minBufferMs, int maxBufferMs, long bufferForPlaybackMs,
+                                          long bufferForPlaybackAfterRebufferMs, int segmentSize) {
+        if (minBufferMs < 0 || minBufferMs > maxBufferMs || bufferForPlaybackMs < 0
+                || bufferForPlaybackMs > minBufferMs || bufferForPlaybackAfterRebufferMs < 0
+                || segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffering profile: min=" + minBufferMs
+                    + " max=" + maxBufferMs + " playback=" + bufferForPlaybackMs
+                    + " rebuffer=" + bufferForPlaybackAfterRebufferMs + " segment=" + segmentSize);
+        }
+        return new BufferingProfile(NAME_CUSTOM, minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs, segmentSize);
+    }
+
+    /**
+     * Returns a profile with the given thresholds, where those passed as {@link C#LENGTH_UNSET} are
+     * taken from {@code base} and adjusted to be consistent with the given ones. For example a
+     * minimum above the base maximum raises the maximum to match.
+     *
+     * @throws IllegalArgumentException If the given thresholds contradict each other.
+     */
+    public static BufferingProfile custom(BufferingProfile base, int minBufferMs, int maxBufferMs,
+                                          long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                                          int segmentSize) {
+        if (minBufferMs == C.LENGTH_UNSET) {
+            minBufferMs = maxBufferMs == C.LENGTH_UNSET ? base.minBufferMs
+                    : Math.min(base.minBufferMs, maxBufferMs);
+        }
+        if (maxBufferMs == C.LENGTH_UNSET) {
+            maxBufferMs = Math.max(base.maxBufferMs, minBufferMs);
+        }
+        if (bufferForPlaybackMs == C.LENGTH_UNSET) {
+            bufferForPlaybackMs = Math.min(base.bufferForPlaybackMs, minBufferMs);
+        }
+        if (bufferForPlaybackAfterRebufferMs == C.LENGTH_UNSET) {
+            bufferForPlaybackAfterRebufferMs = Math.max(bufferForPlaybackMs,
+                    Math.min(base.bufferForPlaybackAfterRebufferMs, minBufferMs));
+        }
+        if (segmentSize == C.LENGTH_UNSET) {
+            segmentSize = base.segmentSize;
+        }
+        return custom(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                segmentSize);
+    }
+
+    /**
+     * Returns the named profile, or {@link #DEFAULT} if the name is unknown.
+     */
+    public static BufferingProfile fromName(String name) {
+        if (NAME_FAST_START.equals(name)) {
+            return FAST_START;
+        } else if (NAME_LOW_LATENCY_LIVE.equals(name)) {
+            return LOW_LATENCY_LIVE;
+        } else if (NAME_LOW_MEMORY.equals(name)) {
+            return LOW_MEMORY;
+        }
+        return DEFAULT;
+    }
+
+    public CappedLoadControl createLoadControl() {
+        return new CappedLoadControl(new DefaultAllocator(true, segmentSize), minBufferMs, maxBufferMs,
+                bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        BufferingProfile other = (BufferingProfile) obj;
+        return minBufferMs == other.minBufferMs && maxBufferMs == other.maxBufferMs
+                && bufferForPlaybackMs == other.bufferForPlaybackMs
+                && bufferForPlaybackAfterRebufferMs == other.bufferForPlaybackAfterRebufferMs
+                && segmentSize == other.segmentSize;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = minBufferMs;
+        result = 31 * result + maxBufferMs;
+        result = 31 * result + (int) bufferForPlaybackMs;
+        result = 31 * result + (int) bufferForPlaybackAfterRebufferMs;
+        result = 31 * result + segmentSize;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [min=" + minBufferMs + ", max=" + maxBufferMs + ", playback="
+                + bufferForPlaybackMs + ", rebuffer=" + bufferForPlaybackAfterRebufferMs
+                + ", segment=" + segmentSize + "]";
+    }
+}
@@ -0,0 +1,107 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * A {@link DefaultLoadControl} whose buffer can be capped below the maximum of its
+ * {@link BufferingProfile}, by duration and by allocated bytes, while the player is not on screen.
+ * The cap can be changed at any time and applies from the next loading decision.
+ * <p>
+ * Under memory pressure the buffer of all instances is also held to a fraction of the maximum, set
+ * by the {@link MemoryPressureMonitor}, but never below what is needed to resume after a rebuffer.
+ */
+public final class CappedLoadControl implements LoadControl {
+
+    private static volatile float bufferFraction = 1f;
+
+    private final DefaultAllocator allocator;
+    private final DefaultLoadControl delegate;
+    private final long maxBufferUs;
+    private final long minPressureBufferUs;
+
+    private volatile long bufferCapUs = C.TIME_UNSET;
+    private volatile long byteCap = C.LENGTH_UNSET;
+
+    public CappedLoadControl(DefaultAllocator allocator, int minBufferMs, int maxBufferMs,
+                             long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
+        this.allocator = allocator;
+        maxBufferUs = maxBufferMs * 1000L;
+        minPressureBufferUs = 2 * Math.max(bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs) * 1000;
+        delegate = new DefaultLoadControl(allocator, minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs);
+    }
+
+    /**
+     * Stops loading once {@code bufferCapMs} of media is buffered or {@code byteCap} bytes are
+     * allocated, whichever comes first. Pass {@link C#TIME_UNSET} or {@link C#LENGTH_UNSET} to leave
+     * either unbounded.
+     */
+    public void setCap(long bufferCapMs, long byteCap) {
+        this.bufferCapUs = bufferCapMs == C.TIME_UNSET ? C.TIME_UNSET : bufferCapMs * 1000;
+        this.byteCap = byteCap;
+    }
+
+    public void clearCap() {
+        setCap(C.TIME_UNSET, C.LENGTH_UNSET);
+    }
+
+    /**
+     * Holds the buffer of all instances to {@code fraction} of their maximum.
+     */
+    static void setBufferFraction(float fraction) {
+        bufferFraction = Math.max(0f, Math.min(1f, fraction));
+    }
+
+    @Override
+    public void onPrepared() {
+        delegate.onPrepared();
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        delegate.onTracksSelected(renderers, trackGroups, trackSelections);
+    }
+
+    @Override
+    public void onStopped() {
+        delegate.onStopped();
+    }
+
+    @Override
+    public void onReleased() {
+        delegate.onReleased();
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+        return delegate.shouldStartPlayback(bufferedDurationUs, rebuffering);
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        long bufferCapUs = this.bufferCapUs;
+        long byteCap = this.byteCap;
+        float fraction = bufferFraction;
+        if (fraction < 1f && bufferedDurationUs >= Math.max((long) (maxBufferUs * fraction), minPressureBufferUs)) {
+            return false;
+        }
+        if ((bufferCapUs != C.TIME_UNSET && bufferedDurationUs >= bufferCapUs)
+                || (byteCap != C.LENGTH_UNSET && allocator.getTotalBytesAllocated() >= byteCap)) {
+            return false;
+        }
+        return delegate.shouldContinueLoading(bufferedDurationUs);
+    }
+}
@@ -0,0 +1,286 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps hidden players prepared with the channels the user is likely to switch to next, so a
+ * channel change swaps in a player that already has the manifest, the tracks and the first
+ * seconds of media instead of preparing from scratch.
+ * <p>
+ * Hidden players come from the {@link PlayerPool} and only buffer up to the preload duration,
+ * within an equal share of the memory budget each. They still hold decoders once prepared, so each
+ * takes a preemptible slot of the {@link DecoderBudget} and a channel is only preloaded while a slot
+ * is free. A visible player that needs the slot releases the channel. Since a paused live player
+ * falls behind the edge, hidden live channels are checked every {@link #LIVE_REFRESH_MS} and moved
+ * back to their default position once it lies beyond what they have buffered. Until then the
+ * buffer still reaches the edge and is kept.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class ChannelZapper {
+
+    private static final String TAG = ChannelZapper.class.getSimpleName();
+
+    public static final int MAX_CHANNELS = 4;
+    public static final long DEFAULT_PRELOAD_MS = 4000;
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 16 * 1024 * 1024;
+
+    private static final long LIVE_REFRESH_MS = 10000;
+
+    public interface MediaSourceBuilder {
+
+        /**
+         * Returns a source for {@code uri}, or null if it cannot be built without a network
+         * round trip, for example because the content type is not known yet.
+         */
+        MediaSource buildMediaSource(Uri uri);
+    }
+
+    private final Context context;
+    private final Handler handler;
+    private final MediaSourceBuilder mediaSourceBuilder;
+    private final Map<Uri, Channel> channels;
+    private final Timeline.Window window;
+
+    private List<Uri> neighbours;
+    private long preloadMs = DEFAULT_PRELOAD_MS;
+    private long memoryBudgetBytes = DEFAULT_MEMORY_BUDGET_BYTES;
+    private int channelLimit = MAX_CHANNELS;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshLiveChannels();
+        }
+    };
+
+    public ChannelZapper(Context context, Handler handler, MediaSourceBuilder mediaSourceBuilder) {
+        this.context = context;
+        this.handler = handler;
+        this.mediaSourceBuilder = mediaSourceBuilder;
+        channels = new LinkedHashMap<>();
+        window = new Timeline.Window();
+        neighbours = new ArrayList<>();
+    }
+
+    /**
+     * @param preloadMs         How much media each hidden channel buffers.
+     * @param memoryBudgetBytes The buffer memory all hidden channels may take together.
+     */
+    public void configure(long preloadMs, long memoryBudgetBytes) {
+        this.preloadMs = Math.max(0, preloadMs);
+        this.memoryBudgetBytes = Math.max(0, memoryBudgetBytes);
+        applyCaps();
+    }
+
+    /**
+     * Lowers the number of hidden channels while memory is short, releasing the least likely ones
+     * above it, or lifts the limit with {@link #MAX_CHANNELS}.
+     */
+    public void setChannelLimit(int limit) {
+        channelLimit = Math.max(0, Math.min(MAX_CHANNELS, limit));
+        List<Channel> kept = new ArrayList<>(channels.values());
+        while (kept.size() > channelLimit) {
+            Channel channel = kept.remove(kept.size() - 1);
+            channels.remove(channel.uri);
+            channel.release();
+        }
+        applyCaps();
+    }
+
+    /**
+     * Preloads {@code uris}, up to {@link #MAX_CHANNELS}, in order of likelihood, and releases the
+     * hidden channels not among them.
+     *
+     * @param uris                       The channels to preload.
+     * @param bufferingProfile           The profile of the visible player, which preloaded players
+     *                                   must share to be swapped in.
+     * @param videoTrackSelectionFactory The video track selection factory of the visible player.
+     */
+    public void setNeighbours(List<Uri> uris, BufferingProfile bufferingProfile,
+                              TrackSelection.Factory videoTrackSelectionFactory) {
+        neighbours = new ArrayList<>();
+        for (Uri uri : uris) {
+            if (neighbours.size() < MAX_CHANNELS && !neighbours.contains(uri)) {
+                neighbours.add(uri);
+            }
+        }
+        Iterator<Channel> iterator = channels.values().iterator();
+        while (iterator.hasNext()) {
+            Channel channel = iterator.next();
+            if (!neighbours.contains(channel.uri)
+                    || !channel.pooledPlayer.bufferingProfile.equals(bufferingProfile)) {
+                iterator.remove();
+                channel.release();
+            }
+        }
+        if (memoryBudgetBytes > 0 && preloadMs > 0) {
+            for (Uri uri : neighbours) {
+                if (!channels.containsKey(uri) && channels.size() < channelLimit) {
+                    preload(uri, bufferingProfile, videoTrackSelectionFactory);
+                }
+            }
+        }
+        applyCaps();
+        scheduleRefresh();
+    }
+
+    /**
+     * Hands over the hidden player of {@code uri}, uncapped and ready to be put on screen, or
+     * returns null if the channel is not preloaded with {@code bufferingProfile}.
+     */
+    public PlayerPool.PooledPlayer take(Uri uri, BufferingProfile bufferingProfile) {
+        Channel channel = channels.get(uri);
+        if (channel == null || !channel.pooledPlayer.bufferingProfile.equals(bufferingProfile)) {
+            return null;
+        }
+        channels.remove(uri);
+        // The slot of the visible player takes over.
+        DecoderBudget.getInstance().release(channel);
+        channel.pooledPlayer.loadControl.clearCap();
+        applyCaps();
+        Log.d(TAG, "Zapping to preloaded " + uri);
+        return channel.pooledPlayer;
+    }
+
+    /**
+     * Keeps the player of a channel that was just left as a hidden channel, if it is one of the
+     * neighbours and not preloaded already.
+     *
+     * @return Whether the player was taken, otherwise the caller remains responsible for it.
+     */
+    public boolean offer(Uri uri, PlayerPool.PooledPlayer pooledPlayer) {
+        if (uri == null || !neighbours.contains(uri) || channels.containsKey(uri)
+                || channels.size() >= channelLimit || memoryBudgetBytes == 0 || preloadMs == 0) {
+            return false;
+        }
+        Channel channel = new Channel(uri);
+        if (!DecoderBudget.getInstance().tryRequest(channel)) {
+            return false;
+        }
+        channel.pooledPlayer = pooledPlayer;
+        pooledPlayer.player.setPlayWhenReady(false);
+        channels.put(uri, channel);
+        applyCaps();
+        scheduleRefresh();
+        return true;
+    }
+
+    /**
+     * Returns all hidden players to the pool.
+     */
+    public void clear() {
+        handler.removeCallbacks(refreshRunnable);
+        for (Channel channel : channels.values()) {
+            channel.release();
+        }
+        channels.clear();
+        neighbours = new ArrayList<>();
+    }
+
+    private void preload(Uri uri, BufferingProfile bufferingProfile,
+                         TrackSelection.Factory videoTrackSelectionFactory) {
+        MediaSource mediaSource = mediaSourceBuilder.buildMediaSource(uri);
+        if (mediaSource == null) {
+            return;
+        }
+        Channel channel = new Channel(uri);
+        if (!DecoderBudget.getInstance().tryRequest(channel)) {
+            return;
+        }
+        PlayerPool.PooledPlayer pooledPlayer = PlayerPool.getInstance(context).acquire(bufferingProfile,
+                videoTrackSelectionFactory);
+        channel.pooledPlayer = pooledPlayer;
+        pooledPlayer.player.setPlayWhenReady(false);
+        pooledPlayer.player.prepare(mediaSource);
+        channels.put(uri, channel);
+    }
+
+    /**
+     * Splits the memory budget evenly between the hidden channels.
+     */
+    private void applyCaps() {
+        if (channels.isEmpty()) {
+            return;
+        }
+        long byteCap = memoryBudgetBytes / channels.size();
+        for (Channel channel : channels.values()) {
+            channel.pooledPlayer.loadControl.setCap(preloadMs, byteCap);
+        }
+    }
+
+    private void scheduleRefresh() {
+        handler.removeCallbacks(refreshRunnable);
+        if (!channels.isEmpty()) {
+            handler.postDelayed(refreshRunnable, LIVE_REFRESH_MS);
+        }
+    }
+
+    private void refreshLiveChannels() {
+        long nowMs = SystemClock.elapsedRealtime();
+        for (Channel channel : channels.values()) {
+            Timeline timeline = channel.pooledPlayer.player.getCurrentTimeline();
+            if (timeline == null || timeline.getWindowCount() == 0
+                    || nowMs - channel.refreshedAtMs < LIVE_REFRESH_MS) {
+                continue;
+            }
+            SimpleExoPlayer player = channel.pooledPlayer.player;
+            timeline.getWindow(player.getCurrentWindowIndex(), window);
+            // Seeking discards the buffer, so only do so once the edge has moved past it.
+            if (window.isDynamic && window.getDefaultPositionMs() != C.TIME_UNSET
+                    && window.getDefaultPositionMs() > player.getBufferedPosition()) {
+                Log.d(TAG, "Moving preloaded " + channel.uri + " back to the live edge");
+                player.seekToDefaultPosition();
+                channel.refreshedAtMs = nowMs;
+            }
+        }
+        scheduleRefresh();
+    }
+
+    private final class Channel implements DecoderBudget.Client {
+
+        private final Uri uri;
+        private PlayerPool.PooledPlayer pooledPlayer;
+        private long refreshedAtMs;
+
+        private Channel(Uri uri) {
+            this.uri = uri;
+            refreshedAtMs = SystemClock.elapsedRealtime();
+        }
+
+        private void release() {
+            DecoderBudget.getInstance().release(this);
+            PlayerPool.getInstance(context).release(pooledPlayer);
+        }
+
+        @Override
+        public void onDecoderGranted() {
+            // Never queued.
+        }
+
+        @Override
+        public void onDecoderRevoked() {
+            Log.d(TAG, "Releasing preloaded " + uri + " for a visible player");
+            channels.remove(uri);
+            PlayerPool.getInstance(context).release(pooledPlayer);
+            applyCaps();
+            scheduleRefresh();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.util.Util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resolves the stream type of URIs whose path does not reveal it, such as tokenised CDN URLs.
+ * <p>
+ * The probe requests the first bytes of the resource and classifies it from the Content-Type
+ * header, falling back to the leading bytes of the body. Results are stored per host, path and
+ * query, with token-like parts wildcarded, so later URIs of the same shape resolve without a
+ * request. They expire after {@link #DEFAULT_MAX_AGE_MS} and are dropped by {@link #invalidate} when
+ * a stream of that shape fails to play. Expired results are swept on startup, and at most
+ * {@link #MAX_ENTRIES} are kept, the oldest going first.
+ */
+public class ContentTypeProbe {
+
+    private static final String TAG = ContentTypeProbe.class.getSimpleName();
+
+    public static final int TYPE_UNKNOWN = -1;
+    public static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+    public static final int MAX_ENTRIES = 256;
+
+    private static final String PREFS_NAME = "nm_content_types_v2";
+    private static final int PROBE_LENGTH = 1024;
+    private static final Set<String> PROGRESSIVE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "mp4", "m4v", "m4a", "mp3", "aac", "ts", "webm", "mkv", "ogg", "opus", "flac", "flv",
+            "wav", "amr", "3gp"));
+    /**
+     * Query parameters commonly used for signed URLs, whose values are never part of the pattern.
+     */
+    private static final Set<String> TOKEN_PARAMETERS = new HashSet<>(Arrays.asList(
+            "token", "auth", "sig", "signature", "hmac", "hash", "expires", "exp", "policy",
+            "key-pair-id", "hdnts", "hdnea", "st", "e", "session", "sessionid"));
+
+    private static ContentTypeProbe instance;
+
+    private final SharedPreferences preferences;
+    private final ExecutorService executor;
+
+    public interface Callback {
+
+        /**
+         * Called on the handler passed to {@link #probe} with the resolved {@code C.TYPE_*} type.
+         */
+        void onContentTypeResolved(Uri uri, int type);
+    }
+
+    public static synchronized ContentTypeProbe getInstance(Context context) {
+        if (instance == null) {
+            instance = new ContentTypeProbe(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ContentTypeProbe(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        executor = Executors.newFixedThreadPool(2);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prune();
+            }
+        });
+    }
+
+    /**
+     * Returns the type inferred from the extension of {@code uri}, or {@link #TYPE_UNKNOWN} if the
+     * path does not name a known manifest or progressive container.
+     */
+    public static int inferContentType(Uri uri) {
+        String lastPathSegment = uri.getLastPathSegment();
+        if (TextUtils.isEmpty(lastPathSegment)) {
+            return TYPE_UNKNOWN;
+        }
+        int type = Util.inferContentType(lastPathSegment);
+        if (type != C.TYPE_OTHER) {
+            return type;
+        }
+        int dot = lastPathSegment.lastIndexOf('.');
+        String extension = dot >= 0 ? lastPathSegment.substring(dot + 1).toLowerCase(Locale.US) : "";
+        return PROGRESSIVE_EXTENSIONS.contains(extension) ? C.TYPE_OTHER : TYPE_UNKNOWN;
+    }
+
+    /**
+     * Returns the type previously probed for the pattern of {@code uri}, or {@link #TYPE_UNKNOWN}.
+     */
+    public int getCachedType(Uri uri) {
+        String pattern = getPattern(uri);
+        String entry = preferences.getString(pattern, null);
+        if (entry == null) {
+            return TYPE_UNKNOWN;
+        }
+        int separator = entry.indexOf(',');
+        try {
+            if (separator > 0 && System.currentTimeMillis() - getProbedAt(entry) < DEFAULT_MAX_AGE_MS) {
+                return Integer.parseInt(entry.substring(0, separator));
+            }
+        } catch (NumberFormatException e) {
+            // Treated as expired.
+        }
+        preferences.edit().remove(pattern).apply();
+        return TYPE_UNKNOWN;
+    }
+
+    private static long getProbedAt(String entry) {
+        return Long.parseLong(entry.substring(entry.indexOf(',') + 1));
+    }
+
+    /**
+     * Removes expired and unreadable results, then the oldest ones beyond {@link #MAX_ENTRIES}.
+     */
+    private synchronized void prune() {
+        Map<String, ?> entries = preferences.getAll();
+        SharedPreferences.Editor editor = preferences.edit();
+        List<Map.Entry<String, Long>> kept = new ArrayList<>();
+        long nowMs = System.currentTimeMillis();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            long probedAtMs = -1;
+            if (entry.getValue() instanceof String) {
+                try {
+                    probedAtMs = getProbedAt((String) entry.getValue());
+                } catch (NumberFormatException e) {
+                    // Removed below.
+                }
+            }
+            if (probedAtMs >= 0 && nowMs - probedAtMs < DEFAULT_MAX_AGE_MS) {
+                kept.add(new AbstractMap.SimpleEntry<>(entry.getKey(), probedAtMs));
+            } else {
+                editor.remove(entry.getKey());
+            }
+        }
+        if (kept.size() > MAX_ENTRIES) {
+            Collections.sort(kept, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(Map.Entry<String, Long> lhs, Map.Entry<String, Long> rhs) {
+                    return lhs.getValue().compareTo(rhs.getValue());
+                }
+            });
+            for (int i = 0; i < kept.size() - MAX_ENTRIES; i++) {
+                editor.remove(kept.get(i).getKey());
+            }
+        }
+        editor.apply();
+        Log.d(TAG, "Pruned " + (entries.size() - Math.min(kept.size(), MAX_ENTRIES)) + " probed types");
+    }
+
+    /**
+     * Forgets the type probed for the pattern of {@code uri}, so the next URI of that shape is
+     * probed again. Called when a stream fails to prepare, since the server may have changed what
+     * it serves under a path.
+     */
+    public void invalidate(Uri uri) {
+        String pattern = getPattern(uri);
+        if (preferences.contains(pattern)) {
+            preferences.edit().remove(pattern).apply();
+            Log.d(TAG, "Invalidated type of " + pattern);
+        }
+    }
+
+    /**
+     * Probes {@code uri} in the background. Falls back to {@link C#TYPE_OTHER} if the request
+     * fails, leaving the error to surface from the extractor.
+     */
+    public void probe(final Uri uri, final HttpDataSource.Factory httpDataSourceFactory,
+                      final Handler callbackHandler, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int type = C.TYPE_OTHER;
+                try {
+                    type = request(uri, httpDataSourceFactory.createDataSource());
+                    preferences.edit()
+                            .putString(getPattern(uri), type + "," + System.currentTimeMillis())
+                            .apply();
+                    Log.d(TAG, "Probed " + uri + " as type " + type);
+                    if (preferences.getAll().size() > MAX_ENTRIES) {
+                        prune();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Probe failed for " + uri, e);
+                }
+                final int resolvedType = type;
+                callbackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onContentTypeResolved(uri, resolvedType);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Classifies a response from its Content-Type, or from its leading bytes if the header is
+     * missing or generic.
+     *
+     * @param contentType The Content-Type header, may be null.
+     * @param head        The leading bytes of the body, may be null.
+     * @return One of the {@code C.TYPE_*} constants.
+     */
+    public static int classify(String contentType, byte[] head) {
+        if (contentType != null) {
+            String mimeType = contentType.split(";")[0].trim().toLowerCase(Locale.US);
+            switch (mimeType) {
+                case "application/dash+xml":
+                    return C.TYPE_DASH;
+                case "application/vnd.apple.mpegurl":
+                case "application/x-mpegurl":
+                case "audio/mpegurl":
+                case "audio/x-mpegurl":
+                    return C.TYPE_HLS;
+                case "application/vnd.ms-sstr+xml":
+                    return C.TYPE_SS;
+                default:
+                    if (mimeType.startsWith("video/") || mimeType.startsWith("audio/")) {
+                        return C.TYPE_OTHER;
+                    }
+            }
+        }
+        if (head != null) {
+            String text = new String(head);
+            if (text.trim().startsWith("#EXTM3U")) {
+                return C.TYPE_HLS;
+            } else if (text.contains("<MPD")) {
+                return C.TYPE_DASH;
+            } else if (text.contains("<SmoothStreamingMedia")) {
+                return C.TYPE_SS;
+            }
+        }
+        return C.TYPE_OTHER;
+    }
+
+    /**
+     * Returns the key results are stored under: the host, every path segment and the query
+     * parameters in name order. Path segments that look like tokens or IDs and the values of
+     * signing parameters or of long, token-like parameters are replaced by a wildcard.
+     */
+    static String getPattern(Uri uri) {
+        StringBuilder pattern = new StringBuilder(String.valueOf(uri.getHost()));
+        for (String segment : uri.getPathSegments()) {
+            pattern.append('/').append(isTokenLike(segment) ? "*" : segment);
+        }
+        if (uri.isHierarchical() && uri.getQuery() != null) {
+            List<String> names = new ArrayList<>(uri.getQueryParameterNames());
+            Collections.sort(names);
+            char separator = '?';
+            for (String name : names) {
+                String value = uri.getQueryParameter(name);
+                boolean token = TOKEN_PARAMETERS.contains(name.toLowerCase(Locale.US))
+                        || (value != null && value.length() >= 16);
+                pattern.append(separator).append(name).append('=').append(token ? "*" : value);
+                separator = '&';
+            }
+        }
+        return pattern.toString();
+    }
+
+    private static boolean isTokenLike(String segment) {
+        int digits = 0;
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                digits++;
+            }
+        }
+        return segment.length() >= 16 || (digits > 0 && digits * 2 >= segment.length());
+    }
+
+    /**
+     * Requests the first bytes of {@code uri} on the calling thread and classifies the response.
+     */
+    static int request(Uri uri, HttpDataSource dataSource) throws IOException {
+        try {
+            dataSource.open(new DataSpec(uri, 0, PROBE_LENGTH, null));
+            byte[] head = new byte[PROBE_LENGTH];
+            int length = 0;
+            int read = 0;
+            while (length < head.length && read != C.RESULT_END_OF_INPUT) {
+                read = dataSource.read(head, length, head.length - length);
+                if (read != C.RESULT_END_OF_INPUT) {
+                    length += read;
+                }
+            }
+            return classify(getHeader(dataSource.getResponseHeaders(), "Content-Type"),
+                    Arrays.copyOf(head, length));
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,162 @@
+package com.noriginmedia.exoplayer;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bounds how many players decode at the same time, since hardware decoders run out long before
+ * memory does and a player that cannot get one fails with a decoder initialization error.
+ * <p>
+ * A {@link Client} asks for a slot before it prepares its player. Clients over the budget wait in
+ * first come, first served order and are granted a slot as soon as one is released. Lowering the
+ * budget revokes the most recently granted slots, whose clients wait at the head of the queue.
+ * <p>
+ * Players that only prepare ahead, such as the hidden players of a {@link ChannelZapper}, take a
+ * slot with {@link #tryRequest} instead. They never wait for one, and give theirs up as soon as a
+ * client of {@link #request} needs it or the budget is lowered.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class DecoderBudget {
+
+    private static final String TAG = DecoderBudget.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_ACTIVE = 4;
+
+    public interface Client {
+
+        /**
+         * Called when a client that was waiting may prepare its player.
+         */
+        void onDecoderGranted();
+
+        /**
+         * Called when the client must release its player's decoders. It waits for a slot again.
+         */
+        void onDecoderRevoked();
+    }
+
+    private static DecoderBudget instance;
+
+    private final List<Client> active;
+    private final LinkedList<Client> waiting;
+    private final Set<Client> preemptible;
+
+    private int maxActive = DEFAULT_MAX_ACTIVE;
+
+    public static DecoderBudget getInstance() {
+        if (instance == null) {
+            instance = new DecoderBudget();
+        }
+        return instance;
+    }
+
+    private DecoderBudget() {
+        active = new ArrayList<>();
+        waiting = new LinkedList<>();
+        preemptible = new HashSet<>();
+    }
+
+    /**
+     * Sets how many clients may decode at the same time, at least one.
+     */
+    public void setMaxActive(int maxActive) {
+        this.maxActive = Math.max(1, maxActive);
+        while (active.size() > this.maxActive) {
+            if (preempt()) {
+                continue;
+            }
+            Client client = active.remove(active.size() - 1);
+            waiting.addFirst(client);
+            Log.d(TAG, "Revoking decoder, " + waiting.size() + " waiting");
+            client.onDecoderRevoked();
+        }
+        grantWaiting();
+    }
+
+    /**
+     * Asks for a slot for {@code client}.
+     *
+     * @return Whether the client holds a slot. Otherwise it is queued and told by
+     * {@link Client#onDecoderGranted} once it gets one.
+     */
+    public boolean request(Client client) {
+        if (active.contains(client)) {
+            return true;
+        }
+        if (waiting.isEmpty() && (active.size() < maxActive || preempt())) {
+            active.add(client);
+            return true;
+        }
+        if (!waiting.contains(client)) {
+            waiting.add(client);
+            Log.d(TAG, "Decoder budget of " + maxActive + " reached, " + waiting.size() + " waiting");
+        }
+        return false;
+    }
+
+    /**
+     * Takes a slot for {@code client} only if one is free and nobody waits for it. The slot is
+     * revoked through {@link Client#onDecoderRevoked} when a client of {@link #request} needs it,
+     * and the client is not queued afterwards.
+     *
+     * @return Whether the client holds a slot.
+     */
+    public boolean tryRequest(Client client) {
+        if (active.contains(client)) {
+            return true;
+        }
+        if (active.size() < maxActive && waiting.isEmpty()) {
+            active.add(client);
+            preemptible.add(client);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Frees the slot of {@code client} for the next waiting one, or takes it out of the queue.
+     */
+    public void release(Client client) {
+        preemptible.remove(client);
+        waiting.remove(client);
+        if (active.remove(client)) {
+            grantWaiting();
+        }
+    }
+
+    public boolean isActive(Client client) {
+        return active.contains(client);
+    }
+
+    /**
+     * Revokes the most recently granted slot taken with {@link #tryRequest}.
+     *
+     * @return Whether there was one.
+     */
+    private boolean preempt() {
+        for (int i = active.size() - 1; i >= 0; i--) {
+            Client client = active.get(i);
+            if (preemptible.remove(client)) {
+                active.remove(i);
+                Log.d(TAG, "Revoking preemptible decoder");
+                client.onDecoderRevoked();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void grantWaiting() {
+        while (active.size() < maxActive && !waiting.isEmpty()) {
+            Client client = waiting.removeFirst();
+            active.add(client);
+            client.onDecoderGranted();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.Util;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The video decoders of the device and the largest frame the decoder ExoPlayer picks for each
+ * type can decode, queried from {@link MediaCodecList} once and persisted under the build
+ * fingerprint, so later launches read them from storage until a system update.
+ * <p>
+ * {@link DecoderCapabilityTrackSelector} filters tracks by the profile before selection, so
+ * variants of a codec the device has no decoder for, or larger than that codec's decoder
+ * supports, are never selected. With a persisted profile this works from the first selection of
+ * the process. ExoPlayer's own decoder lookups are kept in memory only, so they are still loaded
+ * on a background thread at every launch, but only for the types the profile lists as supported.
+ */
+public class DecoderCapabilities {
+
+    private static final String TAG = DecoderCapabilities.class.getSimpleName();
+
+    private static final String PREFS_NAME = "nm_decoder_capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_WIDTH = ".width";
+    private static final String KEY_HEIGHT = ".height";
+
+    private static final String[] VIDEO_MIME_TYPES = {
+            MimeTypes.VIDEO_H264, MimeTypes.VIDEO_H265, MimeTypes.VIDEO_VP8, MimeTypes.VIDEO_VP9
+    };
+
+    private static DecoderCapabilities instance;
+
+    private final SharedPreferences preferences;
+    private final int[] maxWidths;
+    private final int[] maxHeights;
+
+    private final Handler mainHandler;
+    private final List<Runnable> loadedCallbacks;
+
+    private volatile boolean loaded;
+    private boolean loading;
+
+    public static synchronized DecoderCapabilities getInstance(Context context) {
+        if (instance == null) {
+            instance = new DecoderCapabilities(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DecoderCapabilities(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        maxWidths = new int[VIDEO_MIME_TYPES.length];
+        maxHeights = new int[VIDEO_MIME_TYPES.length];
+        mainHandler = new Handler(Looper.getMainLooper());
+        loadedCallbacks = new ArrayList<>();
+    }
+
+    /**
+     * Reads the persisted profile, or queries it in the background if there is none for this build,
+     * then loads ExoPlayer's codec lists in the background. Does nothing after the first call.
+     */
+    public synchronized void load() {
+        if (loading) {
+            return;
+        }
+        loading = true;
+        final boolean persisted = Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null));
+        if (persisted) {
+            for (int i = 0; i < VIDEO_MIME_TYPES.length; i++) {
+                maxWidths[i] = preferences.getInt(VIDEO_MIME_TYPES[i] + KEY_WIDTH, 0);
+                maxHeights[i] = preferences.getInt(VIDEO_MIME_TYPES[i] + KEY_HEIGHT, 0);
+            }
+            onLoaded();
+        }
+        Thread thread = new Thread("DecoderCapabilities") {
+            @Override
+            public void run() {
+                if (!persisted) {
+                    query();
+                }
+                warmCodecs();
+            }
+        };
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Runs {@code callback} on the main thread once the profile is known, right away if it already
+     * is. Callbacks are dropped once run, so a profile queried in the background can be applied to
+     * selections made before it arrived.
+     */
+    public synchronized void runWhenLoaded(Runnable callback) {
+        if (loaded) {
+            mainHandler.post(callback);
+        } else {
+            loadedCallbacks.add(callback);
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns whether the device has a decoder for {@code mimeType}. Returns true while the profile
+     * is not known, and for types the profile does not cover.
+     */
+    public boolean isSupported(String mimeType) {
+        int index = indexOf(mimeType);
+        return !loaded || index == -1 || maxWidths[index] > 0;
+    }
+
+    /**
+     * Returns whether the decoder of {@code mimeType} can decode frames of the given size. Sizes
+     * of {@link Format#NO_VALUE} always fit. Returns true while the profile is not known, and for
+     * types the profile does not cover.
+     */
+    public boolean isSupported(String mimeType, int width, int height) {
+        int index = indexOf(mimeType);
+        if (!loaded || index == -1) {
+            return true;
+        }
+        return maxWidths[index] > 0 && (width == Format.NO_VALUE || width <= maxWidths[index])
+                && (height == Format.NO_VALUE || height <= maxHeights[index]);
+    }
+
+    private static int indexOf(String mimeType) {
+        for (int i = 0; i < VIDEO_MIME_TYPES.length; i++) {
+            if (VIDEO_MIME_TYPES[i].equals(mimeType)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void query() {
+        int[] widths = new int[VIDEO_MIME_TYPES.length];
+        int[] heights = new int[VIDEO_MIME_TYPES.length];
+        try {
+            for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+                MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+                if (codecInfo.isEncoder() || codecInfo.getName().endsWith(".secure")) {
+                    continue;
+                }
+                for (String supportedType : codecInfo.getSupportedTypes()) {
+                    for (int j = 0; j < VIDEO_MIME_TYPES.length; j++) {
+                        // Like ExoPlayer, the first decoder listed for a type is the one used.
+                        if (widths[j] > 0 || !VIDEO_MIME_TYPES[j].equalsIgnoreCase(supportedType)) {
+                            continue;
+                        }
+                        if (Util.SDK_INT >= 21) {
+                            MediaCodecInfo.VideoCapabilities capabilities =
+                                    getVideoCapabilitiesV21(codecInfo, supportedType);
+                            if (capabilities != null) {
+                                widths[j] = capabilities.getSupportedWidths().getUpper();
+                                heights[j] = capabilities.getSupportedHeights().getUpper();
+                            }
+                        } else {
+                            // Frame sizes cannot be queried before API 21, so the size is left open.
+                            widths[j] = Integer.MAX_VALUE;
+                            heights[j] = Integer.MAX_VALUE;
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // Some devices throw while listing codecs, leaving the profile unknown.
+            Log.w(TAG, "Querying decoders failed", e);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit().putString(KEY_FINGERPRINT, Build.FINGERPRINT);
+        synchronized (this) {
+            for (int i = 0; i < VIDEO_MIME_TYPES.length; i++) {
+                maxWidths[i] = widths[i];
+                maxHeights[i] = heights[i];
+                editor.putInt(VIDEO_MIME_TYPES[i] + KEY_WIDTH, widths[i])
+                        .putInt(VIDEO_MIME_TYPES[i] + KEY_HEIGHT, heights[i]);
+            }
+        }
+        editor.apply();
+        onLoaded();
+    }
+
+    private synchronized void onLoaded() {
+        loaded = true;
+        for (Runnable callback : loadedCallbacks) {
+            mainHandler.post(callback);
+        }
+        loadedCallbacks.clear();
+    }
+
+    @TargetApi(21)
+    private static MediaCodecInfo.VideoCapabilities getVideoCapabilitiesV21(MediaCodecInfo codecInfo,
+                                                                            String mimeType) {
+        MediaCodecInfo.CodecCapabilities capabilities = codecInfo.getCapabilitiesForType(mimeType);
+        return capabilities != null ? capabilities.getVideoCapabilities() : null;
+    }
+
+    /**
+     * Fills ExoPlayer's in-memory decoder cache for the supported types. Types the device has no
+     * decoder for are skipped, since looking them up scans the whole codec list for nothing.
+     */
+    private void warmCodecs() {
+        for (String mimeType : VIDEO_MIME_TYPES) {
+            if (isSupported(mimeType)) {
+                try {
+                    MediaCodecUtil.getDecoderInfo(mimeType, false);
+                } catch (MediaCodecUtil.DecoderQueryException e) {
+                    Log.w(TAG, "Warming decoder for " + mimeType + " failed", e);
+                }
+            }
+        }
+    }
+}
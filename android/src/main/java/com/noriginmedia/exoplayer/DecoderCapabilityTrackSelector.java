@@ -0,0 +1,82 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+/**
+ * A {@link DefaultTrackSelector} that leaves out video tracks the {@link DecoderCapabilities}
+ * profile rules out: tracks of a codec the device has no decoder for, and tracks larger than the
+ * decoder of their own codec supports.
+ * <p>
+ * Such tracks are reported to the selector as unsupported before it selects, so they are neither
+ * selected on their own nor included in an adaptive selection. Call {@link #onCapabilitiesChanged}
+ * when a profile that was queried in the background arrives, to select again.
+ */
+public class DecoderCapabilityTrackSelector extends DefaultTrackSelector {
+
+    private final DecoderCapabilities decoderCapabilities;
+
+    public DecoderCapabilityTrackSelector(DecoderCapabilities decoderCapabilities,
+                                          TrackSelection.Factory adaptiveVideoTrackSelectionFactory) {
+        super(adaptiveVideoTrackSelectionFactory);
+        this.decoderCapabilities = decoderCapabilities;
+    }
+
+    /**
+     * Selects tracks again with the current profile.
+     */
+    public void onCapabilitiesChanged() {
+        invalidate();
+    }
+
+    @Override
+    protected TrackSelection[] selectTracks(RendererCapabilities[] rendererCapabilities,
+                                            TrackGroupArray[] rendererTrackGroupArrays,
+                                            int[][][] rendererFormatSupports) throws ExoPlaybackException {
+        if (decoderCapabilities.isLoaded()) {
+            for (int i = 0; i < rendererCapabilities.length; i++) {
+                if (rendererCapabilities[i].getTrackType() == C.TRACK_TYPE_VIDEO) {
+                    filterVideoTracks(rendererTrackGroupArrays[i], rendererFormatSupports[i]);
+                }
+            }
+        }
+        return super.selectTracks(rendererCapabilities, rendererTrackGroupArrays, rendererFormatSupports);
+    }
+
+    private void filterVideoTracks(TrackGroupArray trackGroups, int[][] formatSupports) {
+        for (int groupIndex = 0; groupIndex < trackGroups.length; groupIndex++) {
+            TrackGroup group = trackGroups.get(groupIndex);
+            for (int trackIndex = 0; trackIndex < group.length; trackIndex++) {
+                Format format = group.getFormat(trackIndex);
+                String mimeType = getVideoMimeType(format);
+                int support = formatSupports[groupIndex][trackIndex];
+                if (!decoderCapabilities.isSupported(mimeType)) {
+                    formatSupports[groupIndex][trackIndex] = (support & ~RendererCapabilities.FORMAT_SUPPORT_MASK)
+                            | RendererCapabilities.FORMAT_UNSUPPORTED_SUBTYPE;
+                } else if (!decoderCapabilities.isSupported(mimeType, format.width, format.height)
+                        && (support & RendererCapabilities.FORMAT_SUPPORT_MASK) == RendererCapabilities.FORMAT_HANDLED) {
+                    formatSupports[groupIndex][trackIndex] = (support & ~RendererCapabilities.FORMAT_SUPPORT_MASK)
+                            | RendererCapabilities.FORMAT_EXCEEDS_CAPABILITIES;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the sample MIME type of {@code format}, or the one its codecs string names, as HLS
+     * variants often only carry the latter.
+     */
+    private static String getVideoMimeType(Format format) {
+        if (format.sampleMimeType != null && MimeTypes.isVideo(format.sampleMimeType)) {
+            return format.sampleMimeType;
+        }
+        return format.codecs != null ? MimeTypes.getVideoMediaMimeType(format.codecs) : null;
+    }
+}
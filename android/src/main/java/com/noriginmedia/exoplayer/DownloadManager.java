@@ -0,0 +1,1047 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.drm.DrmInitData;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads DASH, HLS and progressive streams for offline playback.
+ * <p>
+ * Downloads are queued persistently and run on a bounded pool of workers. Each stream is stored in
+ * its own {@link SimpleCache} under the same keys the player requests it with, so that
+ * {@link VideoPlayer} plays a completed download through its usual path by wrapping its data
+ * sources with {@link #buildDataSourceFactory(Uri, DataSource.Factory)}. Only the video
+ * representation or variant closest to the requested bitrate is stored, along with all audio and
+ * text renditions, and {@link #getTrackSelectionFactory(Uri, TrackSelection.Factory)} pins playback
+ * to it. The DRM license of protected DASH streams is stored offline through
+ * {@link DrmLicenseStore}.
+ * <p>
+ * Progress is saved every few segments. An interrupted download, for instance because the process
+ * died, resumes from the last saved segment when the manager is next created. When a storage quota
+ * is set, completed downloads are evicted in least recently played order to make room, and a
+ * download that does not fit even then fails.
+ * <p>
+ * Every download gets a directory of its own, so one that is removed while running and queued
+ * again does not share files with the worker still winding down. Caches are opened on first use
+ * by a worker or by the player's loading thread, never under the manager's lock.
+ */
+public class DownloadManager {
+
+    private static final String TAG = DownloadManager.class.getSimpleName();
+
+    public static final int STATE_QUEUED = 0;
+    public static final int STATE_DOWNLOADING = 1;
+    public static final int STATE_COMPLETED = 2;
+    public static final int STATE_FAILED = 3;
+    public static final int STATE_REMOVED = 4;
+
+    public static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 2;
+
+    private static final String PREFS_NAME = "nm_downloads";
+    private static final String KEY_ITEM = "item.";
+    private static final String KEY_QUOTA = "quotaBytes";
+    private static final String DOWNLOAD_DIR = "nm_downloads";
+    private static final long MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+    private static final int PERSIST_INTERVAL_SEGMENTS = 10;
+    private static final long NOTIFY_INTERVAL_MS = 1000;
+
+    private static final AtomicInteger NEXT_ATTEMPT = new AtomicInteger();
+
+    private static DownloadManager instance;
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread when a download changes state, and periodically while it
+         * progresses.
+         */
+        void onDownloadChanged(Download download);
+    }
+
+    /**
+     * A snapshot of the state of a download.
+     */
+    public static final class Download {
+
+        public final String uri;
+        public final int state;
+        public final int downloadedSegments;
+        public final int segmentCount;
+        public final long downloadedBytes;
+        /**
+         * The reason of the failure if the state is {@link #STATE_FAILED}, or null.
+         */
+        public final String error;
+
+        private Download(Item item, int state) {
+            uri = item.uri;
+            this.state = state;
+            downloadedSegments = item.nextSegment;
+            segmentCount = item.segmentCount;
+            downloadedBytes = item.bytes;
+            error = item.error;
+        }
+    }
+
+    private final Context context;
+    private final File downloadDir;
+    private final SharedPreferences preferences;
+    private final Handler mainHandler;
+    private final ThreadPoolExecutor executor;
+    private final String userAgent;
+    private final Map<String, Item> items;
+    /**
+     * Guarded by itself rather than the manager, since opening a cache scans its directory.
+     */
+    private final Map<String, SimpleCache> caches;
+    private final CopyOnWriteArrayList<Listener> listeners;
+
+    private long quotaBytes;
+
+    public static synchronized DownloadManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DownloadManager(Context context) {
+        this.context = context;
+        downloadDir = new File(context.getFilesDir(), DOWNLOAD_DIR);
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mainHandler = new Handler(Looper.getMainLooper());
+        executor = new ThreadPoolExecutor(DEFAULT_MAX_PARALLEL_DOWNLOADS, DEFAULT_MAX_PARALLEL_DOWNLOADS,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        userAgent = Util.getUserAgent(context, "ExoVideoPlayer");
+        items = new LinkedHashMap<>();
+        caches = new HashMap<>();
+        listeners = new CopyOnWriteArrayList<>();
+        quotaBytes = preferences.getLong(KEY_QUOTA, 0);
+        restore();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the number of downloads that run at the same time.
+     */
+    public void setMaxParallelDownloads(int maxParallelDownloads) {
+        int size = Math.max(1, maxParallelDownloads);
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Sets the storage all downloads may take up together, or 0 for no limit. Completed downloads
+     * are evicted straight away if they exceed it.
+     */
+    public void setQuota(long quotaBytes) {
+        List<Item> evicted;
+        synchronized (this) {
+            this.quotaBytes = Math.max(0, quotaBytes);
+            preferences.edit().putLong(KEY_QUOTA, this.quotaBytes).apply();
+            evicted = evictForQuota(null);
+        }
+        for (Item item : evicted) {
+            notifyChanged(item, STATE_REMOVED);
+        }
+    }
+
+    /**
+     * Queues a download of {@code uri}. Does nothing if it is already queued or downloaded, and
+     * retries it if it failed.
+     *
+     * @param uri                       The stream to download.
+     * @param maxVideoBitrate           The highest video bitrate to store. The lowest one is stored
+     *                                  if all exceed it.
+     * @param drmScheme                 The DRM scheme, or null if the stream is not protected.
+     * @param drmLicenseUrl             The license server of protected streams.
+     * @param keyRequestPropertiesArray License request headers as alternating names and values.
+     */
+    public void download(String uri, int maxVideoBitrate, String drmScheme, String drmLicenseUrl,
+                         String[] keyRequestPropertiesArray) {
+        Item item;
+        synchronized (this) {
+            item = items.get(uri);
+            if (item != null && item.state != STATE_FAILED) {
+                return;
+            }
+            if (item == null) {
+                item = new Item(uri, newId(uri));
+                items.put(uri, item);
+            }
+            item.maxVideoBitrate = maxVideoBitrate;
+            item.drmScheme = drmScheme;
+            item.drmLicenseUrl = drmLicenseUrl;
+            item.keyRequestPropertiesArray = keyRequestPropertiesArray;
+            item.state = STATE_QUEUED;
+            item.error = null;
+            persist(item);
+        }
+        notifyChanged(item, STATE_QUEUED);
+        submit(item);
+    }
+
+    /**
+     * Cancels the download of {@code uri} if it is running and deletes what it stored.
+     */
+    public void remove(String uri) {
+        Item item;
+        synchronized (this) {
+            item = items.remove(uri);
+            if (item == null) {
+                return;
+            }
+            item.cancelled = true;
+            preferences.edit().remove(KEY_ITEM + item.id).apply();
+            // A running download deletes its files once it has stopped writing.
+            if (item.state != STATE_DOWNLOADING) {
+                deleteFiles(item);
+            }
+        }
+        notifyChanged(item, STATE_REMOVED);
+    }
+
+    public synchronized List<Download> getDownloads() {
+        List<Download> downloads = new ArrayList<>(items.size());
+        for (Item item : items.values()) {
+            downloads.add(new Download(item, item.state));
+        }
+        return downloads;
+    }
+
+    /**
+     * Returns the download of {@code uri}, or null if there is none.
+     */
+    public synchronized Download getDownload(String uri) {
+        Item item = items.get(uri);
+        return item != null ? new Download(item, item.state) : null;
+    }
+
+    /**
+     * Returns the stream type resolved when {@code uri} was downloaded, or
+     * {@link ContentTypeProbe#TYPE_UNKNOWN} if it has no download or the type was not resolved yet.
+     * Lets a download whose URI does not reveal its type play without probing the network.
+     */
+    public synchronized int getContentType(Uri uri) {
+        Item item = items.get(uri.toString());
+        return item != null ? item.type : ContentTypeProbe.TYPE_UNKNOWN;
+    }
+
+    /**
+     * Wraps {@code upstreamFactory} so that requests made while playing {@code uri} are served
+     * from its completed download. Requests for data that was not downloaded go to the upstream.
+     * Returns {@code upstreamFactory} itself if {@code uri} has not been downloaded.
+     */
+    public DataSource.Factory buildDataSourceFactory(Uri uri, final DataSource.Factory upstreamFactory) {
+        final Item item;
+        synchronized (this) {
+            item = items.get(uri.toString());
+            if (item == null || item.state != STATE_COMPLETED) {
+                return upstreamFactory;
+            }
+            item.lastAccessMs = System.currentTimeMillis();
+            persist(item);
+        }
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                // Called on a loading thread, which can afford to open the cache.
+                DataSource upstream = upstreamFactory.createDataSource();
+                Cache cache = getCache(item);
+                return cache != null ? new OfflineDataSource(cache, upstream) : upstream;
+            }
+        };
+    }
+
+    /**
+     * Returns a factory that selects the downloaded video track of {@code uri}, or
+     * {@code fallbackFactory} if {@code uri} has not been downloaded.
+     */
+    public synchronized TrackSelection.Factory getTrackSelectionFactory(Uri uri,
+                                                                        TrackSelection.Factory fallbackFactory) {
+        Item item = items.get(uri.toString());
+        if (item == null || item.state != STATE_COMPLETED || item.videoFormatIds.isEmpty()) {
+            return fallbackFactory;
+        }
+        return new DownloadedTrackSelectionFactory(item.videoFormatIds, fallbackFactory);
+    }
+
+    private void restore() {
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(KEY_ITEM)) {
+                continue;
+            }
+            try {
+                Item item = Item.fromJson(new JSONObject((String) entry.getValue()));
+                items.put(item.uri, item);
+            } catch (JSONException | ClassCastException e) {
+                Log.w(TAG, "Dropping unreadable download " + entry.getKey(), e);
+                preferences.edit().remove(entry.getKey()).apply();
+            }
+        }
+        for (Item item : items.values()) {
+            if (item.state == STATE_QUEUED || item.state == STATE_DOWNLOADING) {
+                item.state = STATE_QUEUED;
+                submit(item);
+            }
+        }
+    }
+
+    private void submit(final Item item) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runDownload(item);
+            }
+        });
+    }
+
+    private void runDownload(Item item) {
+        SimpleCache cache;
+        synchronized (this) {
+            if (item.cancelled || item.state != STATE_QUEUED) {
+                return;
+            }
+            item.state = STATE_DOWNLOADING;
+            persist(item);
+        }
+        cache = getCache(item);
+        if (cache == null) {
+            return;
+        }
+        notifyChanged(item, STATE_DOWNLOADING);
+        int state;
+        try {
+            HttpDataSource.Factory httpDataSourceFactory =
+                    PooledHttpClient.getInstance().createFactory(userAgent, null);
+            Plan plan = plan(item, cache, httpDataSourceFactory);
+            if (item.drmScheme != null && plan.drmInitData != null) {
+                storeLicense(item, plan.drmInitData, httpDataSourceFactory);
+            }
+            synchronized (this) {
+                item.type = plan.type;
+                item.segmentCount = plan.segments.size();
+                item.videoFormatIds = plan.videoFormatIds;
+            }
+            long lastNotifyMs = 0;
+            for (int i = item.nextSegment; i < plan.segments.size() && !item.cancelled; i++) {
+                downloadSegment(cache, httpDataSourceFactory, plan.segments.get(i), false, item);
+                List<Item> evicted;
+                boolean exceedsQuota;
+                synchronized (this) {
+                    item.nextSegment = i + 1;
+                    item.bytes = cache.getCacheSpace();
+                    if (item.nextSegment % PERSIST_INTERVAL_SEGMENTS == 0) {
+                        persist(item);
+                    }
+                    evicted = evictForQuota(item);
+                    exceedsQuota = quotaBytes > 0 && getTotalBytes() > quotaBytes;
+                }
+                for (Item evictedItem : evicted) {
+                    notifyChanged(evictedItem, STATE_REMOVED);
+                }
+                if (exceedsQuota) {
+                    throw new IOException("Storage quota exceeded");
+                }
+                if (SystemClock.elapsedRealtime() - lastNotifyMs >= NOTIFY_INTERVAL_MS) {
+                    lastNotifyMs = SystemClock.elapsedRealtime();
+                    notifyChanged(item, STATE_DOWNLOADING);
+                }
+            }
+            state = STATE_COMPLETED;
+        } catch (IOException | RuntimeException e) {
+            if (!item.cancelled) {
+                Log.w(TAG, "Download failed for " + item.uri, e);
+            }
+            item.error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            state = STATE_FAILED;
+        }
+        synchronized (this) {
+            if (item.cancelled) {
+                deleteFiles(item);
+                return;
+            }
+            item.state = state;
+            item.bytes = cache.getCacheSpace();
+            item.lastAccessMs = System.currentTimeMillis();
+            persist(item);
+        }
+        Log.d(TAG, "Download of " + item.uri + (state == STATE_COMPLETED ? " completed, " : " failed, ")
+                + item.bytes + " bytes");
+        notifyChanged(item, state);
+    }
+
+    /**
+     * Downloads the manifests of {@code item} and lists the segments to download after them.
+     */
+    private Plan plan(Item item, Cache cache, HttpDataSource.Factory httpDataSourceFactory)
+            throws IOException {
+        Uri uri = Uri.parse(item.uri);
+        int type = ContentTypeProbe.inferContentType(uri);
+        if (type == ContentTypeProbe.TYPE_UNKNOWN) {
+            type = ContentTypeProbe.request(uri, httpDataSourceFactory.createDataSource());
+        }
+        Plan plan = new Plan();
+        plan.type = type;
+        switch (type) {
+            case C.TYPE_DASH:
+                planDash(plan, item, downloadSegment(cache, httpDataSourceFactory, new DataSpec(uri), true, item));
+                break;
+            case C.TYPE_HLS:
+                planHls(plan, item, cache, httpDataSourceFactory,
+                        downloadSegment(cache, httpDataSourceFactory, new DataSpec(uri), true, item));
+                break;
+            case C.TYPE_OTHER:
+                plan.segments.add(new DataSpec(uri));
+                break;
+            default:
+                throw new IOException("Downloads of stream type " + type + " are not supported");
+        }
+        return plan;
+    }
+
+    private static void planDash(Plan plan, Item item, byte[] manifestData) throws IOException {
+        Uri uri = Uri.parse(item.uri);
+        DashManifest manifest = new DashManifestParser().parse(uri, new ByteArrayInputStream(manifestData));
+        if (manifest.dynamic) {
+            throw new IOException("Live streams cannot be downloaded");
+        }
+        for (int periodIndex = 0; periodIndex < manifest.getPeriodCount(); periodIndex++) {
+            Period period = manifest.getPeriod(periodIndex);
+            long periodDurationUs = manifest.getPeriodDurationUs(periodIndex);
+            for (AdaptationSet adaptationSet : period.adaptationSets) {
+                List<Representation> representations = adaptationSet.representations;
+                if (adaptationSet.type == C.TRACK_TYPE_VIDEO) {
+                    Representation representation = selectVideoRepresentation(representations,
+                            item.maxVideoBitrate);
+                    plan.videoFormatIds.add(representation.format.id);
+                    representations = Collections.singletonList(representation);
+                }
+                for (Representation representation : representations) {
+                    if (plan.drmInitData == null) {
+                        plan.drmInitData = representation.format.drmInitData;
+                    }
+                    addRepresentation(plan, representation, periodDurationUs);
+                }
+            }
+        }
+    }
+
+    private static Representation selectVideoRepresentation(List<Representation> representations,
+                                                            int maxBitrate) {
+        Representation best = null;
+        Representation lowest = null;
+        for (Representation representation : representations) {
+            int bitrate = representation.format.bitrate;
+            if (bitrate <= maxBitrate && (best == null || bitrate > best.format.bitrate)) {
+                best = representation;
+            }
+            if (lowest == null || bitrate < lowest.format.bitrate) {
+                lowest = representation;
+            }
+        }
+        return best != null ? best : lowest;
+    }
+
+    private static void addRepresentation(Plan plan, Representation representation, long periodDurationUs)
+            throws IOException {
+        String cacheKey = representation.getCacheKey();
+        if (representation instanceof Representation.SingleSegmentRepresentation) {
+            // The initialization data, index and media all live in one file.
+            plan.segments.add(new DataSpec(((Representation.SingleSegmentRepresentation) representation).uri,
+                    0, C.LENGTH_UNSET, cacheKey));
+            return;
+        }
+        RangedUri initializationUri = representation.getInitializationUri();
+        if (initializationUri != null) {
+            plan.segments.add(buildDataSpec(representation, initializationUri, cacheKey));
+        }
+        DashSegmentIndex index = representation.getIndex();
+        int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+        if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED) {
+            throw new IOException("Representation " + representation.format.id + " has no end");
+        }
+        for (int segmentNum = index.getFirstSegmentNum(); segmentNum <= lastSegmentNum; segmentNum++) {
+            plan.segments.add(buildDataSpec(representation, index.getSegmentUrl(segmentNum), cacheKey));
+        }
+    }
+
+    private static DataSpec buildDataSpec(Representation representation, RangedUri rangedUri, String cacheKey) {
+        return new DataSpec(rangedUri.resolveUri(representation.baseUrl), rangedUri.start, rangedUri.length,
+                cacheKey);
+    }
+
+    private void planHls(Plan plan, Item item, Cache cache, HttpDataSource.Factory httpDataSourceFactory,
+                         byte[] playlistData) throws IOException {
+        Uri uri = Uri.parse(item.uri);
+        HlsPlaylist playlist = new HlsPlaylistParser().parse(uri, new ByteArrayInputStream(playlistData));
+        if (playlist instanceof HlsMediaPlaylist) {
+            addMediaPlaylist(plan, (HlsMediaPlaylist) playlist, false);
+            return;
+        }
+        HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+        HlsMasterPlaylist.HlsUrl variant = selectVariant(masterPlaylist.variants, item.maxVideoBitrate);
+        List<HlsMasterPlaylist.HlsUrl> renditions = new ArrayList<>();
+        if (variant != null) {
+            plan.videoFormatIds.add(variant.format.id);
+            renditions.add(variant);
+        }
+        renditions.addAll(masterPlaylist.audios);
+        renditions.addAll(masterPlaylist.subtitles);
+        for (HlsMasterPlaylist.HlsUrl rendition : renditions) {
+            addMediaPlaylist(plan, downloadMediaPlaylist(masterPlaylist, rendition, cache,
+                    httpDataSourceFactory, item), false);
+        }
+        // The player loads the first listed variant while preparing, before it selects a track.
+        HlsMasterPlaylist.HlsUrl firstVariant = masterPlaylist.variants.isEmpty() ? null
+                : masterPlaylist.variants.get(0);
+        if (firstVariant != null && firstVariant != variant) {
+            addMediaPlaylist(plan, downloadMediaPlaylist(masterPlaylist, firstVariant, cache,
+                    httpDataSourceFactory, item), true);
+        }
+    }
+
+    private HlsMediaPlaylist downloadMediaPlaylist(HlsMasterPlaylist masterPlaylist,
+                                                   HlsMasterPlaylist.HlsUrl rendition, Cache cache,
+                                                   HttpDataSource.Factory httpDataSourceFactory, Item item)
+            throws IOException {
+        Uri playlistUri = UriUtil.resolveToUri(masterPlaylist.baseUri, rendition.url);
+        byte[] data = downloadSegment(cache, httpDataSourceFactory, new DataSpec(playlistUri), true, item);
+        HlsPlaylist playlist = new HlsPlaylistParser().parse(playlistUri, new ByteArrayInputStream(data));
+        if (!(playlist instanceof HlsMediaPlaylist)) {
+            throw new IOException("Expected a media playlist at " + playlistUri);
+        }
+        return (HlsMediaPlaylist) playlist;
+    }
+
+    private static HlsMasterPlaylist.HlsUrl selectVariant(List<HlsMasterPlaylist.HlsUrl> variants, int maxBitrate) {
+        HlsMasterPlaylist.HlsUrl best = null;
+        HlsMasterPlaylist.HlsUrl lowest = null;
+        for (HlsMasterPlaylist.HlsUrl variant : variants) {
+            int bitrate = variant.format.bitrate;
+            if (bitrate <= maxBitrate && (best == null || bitrate > best.format.bitrate)) {
+                best = variant;
+            }
+            if (lowest == null || bitrate < lowest.format.bitrate) {
+                lowest = variant;
+            }
+        }
+        return best != null ? best : lowest;
+    }
+
+    private static void addMediaPlaylist(Plan plan, HlsMediaPlaylist playlist, boolean firstSegmentOnly)
+            throws IOException {
+        if (!playlist.hasEndTag) {
+            throw new IOException("Live streams cannot be downloaded");
+        }
+        if (playlist.initializationSegment != null) {
+            plan.segments.add(buildDataSpec(playlist, playlist.initializationSegment));
+        }
+        Set<String> keyUris = new HashSet<>();
+        for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+            if (segment.isEncrypted && keyUris.add(segment.encryptionKeyUri)) {
+                plan.segments.add(new DataSpec(UriUtil.resolveToUri(playlist.baseUri, segment.encryptionKeyUri)));
+            }
+            plan.segments.add(buildDataSpec(playlist, segment));
+            if (firstSegmentOnly) {
+                break;
+            }
+        }
+    }
+
+    private static DataSpec buildDataSpec(HlsMediaPlaylist playlist, HlsMediaPlaylist.Segment segment) {
+        return new DataSpec(UriUtil.resolveToUri(playlist.baseUri, segment.url), segment.byterangeOffset,
+                segment.byterangeLength, null);
+    }
+
+    private void storeLicense(Item item, DrmInitData drmInitData,
+                              HttpDataSource.Factory httpDataSourceFactory) throws IOException {
+        Map<String, String> keyRequestProperties = null;
+        String[] keyRequestPropertiesArray = item.keyRequestPropertiesArray;
+        if (keyRequestPropertiesArray != null && keyRequestPropertiesArray.length >= 2) {
+            keyRequestProperties = new HashMap<>();
+            for (int i = 0; i < keyRequestPropertiesArray.length - 1; i += 2) {
+                keyRequestProperties.put(keyRequestPropertiesArray[i], keyRequestPropertiesArray[i + 1]);
+            }
+        }
+        boolean stored = DrmLicenseStore.getInstance(context).downloadLicense(VideoPlayer.getDrmUuid(item.drmScheme),
+                drmInitData, item.drmLicenseUrl, keyRequestProperties, httpDataSourceFactory);
+        if (!stored) {
+            throw new IOException("The license cannot be stored offline");
+        }
+    }
+
+    /**
+     * Downloads {@code dataSpec} into {@code cache}, replacing whatever part of it was stored
+     * before, and returns its bytes if {@code collect} is set.
+     */
+    private static byte[] downloadSegment(Cache cache, HttpDataSource.Factory httpDataSourceFactory,
+                                          DataSpec dataSpec, boolean collect, Item item) throws IOException {
+        removeSpans(cache, dataSpec);
+        DataSource dataSource = new CacheDataSource(cache, httpDataSourceFactory.createDataSource(),
+                new FileDataSource(), new CacheDataSink(cache, MAX_CACHE_FILE_SIZE), 0, null);
+        ByteArrayOutputStream output = collect ? new ByteArrayOutputStream() : null;
+        byte[] buffer = new byte[16 * 1024];
+        try {
+            dataSource.open(dataSpec);
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                if (item.cancelled) {
+                    throw new InterruptedIOException("Download cancelled");
+                }
+                if (output != null) {
+                    output.write(buffer, 0, read);
+                }
+            }
+        } finally {
+            dataSource.close();
+        }
+        return output != null ? output.toByteArray() : null;
+    }
+
+    /**
+     * Removes the spans overlapping {@code dataSpec}, which are left over from an interrupted
+     * attempt.
+     */
+    private static void removeSpans(Cache cache, DataSpec dataSpec) throws IOException {
+        NavigableSet<CacheSpan> spans = cache.getCachedSpans(getKey(dataSpec));
+        if (spans == null) {
+            return;
+        }
+        long end = dataSpec.length == C.LENGTH_UNSET ? Long.MAX_VALUE : dataSpec.position + dataSpec.length;
+        for (CacheSpan span : spans) {
+            if (span.position < end && span.position + span.length > dataSpec.position) {
+                cache.removeSpan(span);
+            }
+        }
+    }
+
+    private static String getKey(DataSpec dataSpec) {
+        return dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+    }
+
+    /**
+     * Evicts completed downloads other than {@code downloading} in least recently played order
+     * until all downloads fit the quota, and returns the evicted ones.
+     */
+    private List<Item> evictForQuota(Item downloading) {
+        if (quotaBytes <= 0) {
+            return Collections.emptyList();
+        }
+        long totalBytes = getTotalBytes();
+        List<Item> candidates = new ArrayList<>();
+        for (Item item : items.values()) {
+            if (item != downloading && item.state == STATE_COMPLETED) {
+                candidates.add(item);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Item>() {
+            @Override
+            public int compare(Item first, Item second) {
+                return first.lastAccessMs < second.lastAccessMs ? -1
+                        : first.lastAccessMs == second.lastAccessMs ? 0 : 1;
+            }
+        });
+        List<Item> evicted = new ArrayList<>();
+        for (Item item : candidates) {
+            if (totalBytes <= quotaBytes) {
+                break;
+            }
+            totalBytes -= item.bytes;
+            items.remove(item.uri);
+            preferences.edit().remove(KEY_ITEM + item.id).apply();
+            deleteFiles(item);
+            evicted.add(item);
+            Log.d(TAG, "Evicted download " + item.uri + " to fit the quota");
+        }
+        return evicted;
+    }
+
+    private long getTotalBytes() {
+        long totalBytes = 0;
+        for (Item item : items.values()) {
+            totalBytes += item.bytes;
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Returns the cache of {@code item}, opening it if needed, or null if its files were deleted.
+     * Must not be called while holding the manager's lock.
+     */
+    private SimpleCache getCache(Item item) {
+        synchronized (caches) {
+            if (item.filesDeleted) {
+                return null;
+            }
+            SimpleCache cache = caches.get(item.id);
+            if (cache == null) {
+                cache = new SimpleCache(new File(downloadDir, item.id), new NoOpCacheEvictor());
+                caches.put(item.id, cache);
+            }
+            return cache;
+        }
+    }
+
+    private void deleteFiles(Item item) {
+        synchronized (caches) {
+            item.filesDeleted = true;
+            caches.remove(item.id);
+        }
+        deleteRecursively(new File(downloadDir, item.id));
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    private void persist(Item item) {
+        try {
+            preferences.edit().putString(KEY_ITEM + item.id, item.toJson().toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not save download " + item.uri, e);
+        }
+    }
+
+    private void notifyChanged(Item item, int state) {
+        final Download download;
+        synchronized (this) {
+            download = new Download(item, state);
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onDownloadChanged(download);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns an ID for a new download of {@code uri}. It names the download's directory, so it is
+     * unique to each download rather than to the URI.
+     */
+    private static String newId(String uri) {
+        String attempt = Long.toString(System.currentTimeMillis(), 36) + "-"
+                + Integer.toHexString(NEXT_ATTEMPT.incrementAndGet());
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return Base64.encodeToString(digest.digest(uri.getBytes()),
+                    Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE) + "-" + attempt;
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(uri.hashCode()) + "-" + attempt;
+        }
+    }
+
+    private static final class Plan {
+
+        private final List<DataSpec> segments = new ArrayList<>();
+        private final Set<String> videoFormatIds = new HashSet<>();
+        private DrmInitData drmInitData;
+        private int type;
+    }
+
+    private static final class Item {
+
+        private final String uri;
+        private final String id;
+        private int maxVideoBitrate = Integer.MAX_VALUE;
+        private int type = ContentTypeProbe.TYPE_UNKNOWN;
+        private String drmScheme;
+        private String drmLicenseUrl;
+        private String[] keyRequestPropertiesArray;
+        private int state;
+        private int nextSegment;
+        private int segmentCount;
+        private long bytes;
+        private long lastAccessMs;
+        private String error;
+        private Set<String> videoFormatIds = Collections.emptySet();
+        private volatile boolean cancelled;
+        /**
+         * Guarded by {@link #caches}.
+         */
+        private boolean filesDeleted;
+
+        private Item(String uri, String id) {
+            this.uri = uri;
+            this.id = id;
+        }
+
+        private JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject()
+                    .put("uri", uri)
+                    .put("id", id)
+                    .put("maxVideoBitrate", maxVideoBitrate)
+                    .put("type", type)
+                    .put("drmScheme", drmScheme)
+                    .put("drmLicenseUrl", drmLicenseUrl)
+                    .put("state", state)
+                    .put("nextSegment", nextSegment)
+                    .put("segmentCount", segmentCount)
+                    .put("bytes", bytes)
+                    .put("lastAccessMs", lastAccessMs)
+                    .put("error", error)
+                    .put("videoFormatIds", new JSONArray(videoFormatIds));
+            if (keyRequestPropertiesArray != null) {
+                JSONArray keyRequestProperties = new JSONArray();
+                for (String value : keyRequestPropertiesArray) {
+                    keyRequestProperties.put(value);
+                }
+                json.put("keyRequestProperties", keyRequestProperties);
+            }
+            return json;
+        }
+
+        private static Item fromJson(JSONObject json) throws JSONException {
+            Item item = new Item(json.getString("uri"), json.getString("id"));
+            item.maxVideoBitrate = json.getInt("maxVideoBitrate");
+            item.type = json.optInt("type", ContentTypeProbe.TYPE_UNKNOWN);
+            item.drmScheme = json.optString("drmScheme", null);
+            item.drmLicenseUrl = json.optString("drmLicenseUrl", null);
+            item.state = json.getInt("state");
+            item.nextSegment = json.getInt("nextSegment");
+            item.segmentCount = json.getInt("segmentCount");
+            item.bytes = json.getLong("bytes");
+            item.lastAccessMs = json.getLong("lastAccessMs");
+            item.error = json.optString("error", null);
+            JSONArray videoFormatIds = json.getJSONArray("videoFormatIds");
+            item.videoFormatIds = new HashSet<>();
+            for (int i = 0; i < videoFormatIds.length(); i++) {
+                item.videoFormatIds.add(videoFormatIds.getString(i));
+            }
+            JSONArray keyRequestProperties = json.optJSONArray("keyRequestProperties");
+            if (keyRequestProperties != null) {
+                item.keyRequestPropertiesArray = new String[keyRequestProperties.length()];
+                for (int i = 0; i < keyRequestProperties.length(); i++) {
+                    item.keyRequestPropertiesArray[i] = keyRequestProperties.getString(i);
+                }
+            }
+            return item;
+        }
+    }
+
+    /**
+     * Selects the downloaded track of a group and leaves groups without one to the fallback.
+     */
+    private static final class DownloadedTrackSelectionFactory implements TrackSelection.Factory {
+
+        private final Set<String> formatIds;
+        private final TrackSelection.Factory fallbackFactory;
+
+        private DownloadedTrackSelectionFactory(Set<String> formatIds, TrackSelection.Factory fallbackFactory) {
+            this.formatIds = formatIds;
+            this.fallbackFactory = fallbackFactory;
+        }
+
+        @Override
+        public TrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            for (int track : tracks) {
+                if (formatIds.contains(group.getFormat(track).id)) {
+                    return new FixedTrackSelection(group, track);
+                }
+            }
+            return fallbackFactory.createTrackSelection(group, tracks);
+        }
+    }
+
+    /**
+     * Reads a request from the spans of a download if they cover all of it, and from the upstream
+     * otherwise. A request of unset length is covered if the spans run without a gap from its
+     * position to the last stored byte of its key, since downloads store whole segments.
+     */
+    private static final class OfflineDataSource implements DataSource {
+
+        private final Cache cache;
+        private final DataSource upstream;
+        private final FileDataSource fileDataSource;
+
+        private DataSource currentDataSource;
+        private List<CacheSpan> spans;
+        private int spanIndex;
+        private long position;
+        private long bytesRemaining;
+        private Uri uri;
+
+        private OfflineDataSource(Cache cache, DataSource upstream) {
+            this.cache = cache;
+            this.upstream = upstream;
+            fileDataSource = new FileDataSource();
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            uri = dataSpec.uri;
+            position = dataSpec.position;
+            long end = findCoveringSpans(dataSpec);
+            if (spans == null) {
+                currentDataSource = upstream;
+                return upstream.open(dataSpec);
+            }
+            currentDataSource = fileDataSource;
+            bytesRemaining = end - position;
+            spanIndex = 0;
+            openSpan();
+            return bytesRemaining;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            if (currentDataSource == upstream) {
+                return upstream.read(buffer, offset, readLength);
+            }
+            if (bytesRemaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int read = fileDataSource.read(buffer, offset, (int) Math.min(readLength, bytesRemaining));
+            if (read == C.RESULT_END_OF_INPUT) {
+                fileDataSource.close();
+                spanIndex++;
+                openSpan();
+                return read(buffer, offset, readLength);
+            }
+            position += read;
+            bytesRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return uri;
+        }
+
+        @Override
+        public void close() throws IOException {
+            uri = null;
+            spans = null;
+            if (currentDataSource != null) {
+                DataSource dataSource = currentDataSource;
+                currentDataSource = null;
+                dataSource.close();
+            }
+        }
+
+        /**
+         * Sets {@link #spans} to the spans covering {@code dataSpec}, or null if they do not cover
+         * it, and returns the end position of the request.
+         */
+        private long findCoveringSpans(DataSpec dataSpec) {
+            spans = null;
+            NavigableSet<CacheSpan> cachedSpans = cache.getCachedSpans(getKey(dataSpec));
+            if (cachedSpans == null || cachedSpans.isEmpty()) {
+                return C.LENGTH_UNSET;
+            }
+            CacheSpan lastSpan = cachedSpans.last();
+            long end = dataSpec.length != C.LENGTH_UNSET ? dataSpec.position + dataSpec.length
+                    : lastSpan.position + lastSpan.length;
+            List<CacheSpan> covering = new ArrayList<>();
+            long covered = dataSpec.position;
+            for (CacheSpan span : cachedSpans) {
+                if (covered >= end) {
+                    break;
+                }
+                if (span.position + span.length <= covered) {
+                    continue;
+                }
+                if (span.position > covered) {
+                    return C.LENGTH_UNSET;
+                }
+                covering.add(span);
+                covered = span.position + span.length;
+            }
+            if (covered >= end && end > dataSpec.position) {
+                spans = covering;
+            }
+            return end;
+        }
+
+        private void openSpan() throws IOException {
+            CacheSpan span = spans.get(spanIndex);
+            long offset = position - span.position;
+            long length = Math.min(span.length - offset, bytesRemaining);
+            fileDataSource.open(new DataSpec(Uri.fromFile(span.file), offset, length, null));
+        }
+    }
+}
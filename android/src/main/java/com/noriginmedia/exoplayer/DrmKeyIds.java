@@ -0,0 +1,167 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.drm.DrmInitData;
+
+import android.util.Base64;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the key IDs a stream's PSSH box names.
+ * <p>
+ * Key IDs are taken from the box itself for version 1 boxes, from the key_id fields of the
+ * Widevine PSSH data and from the KID elements and attributes of a PlayReady header.
+ */
+final class DrmKeyIds {
+
+    private static final int TYPE_PSSH = 0x70737368;
+    private static final int KEY_ID_LENGTH = 16;
+    private static final int WIDEVINE_KEY_ID_TAG = (2 << 3) | 2;
+    private static final int PLAYREADY_RECORD_HEADER = 1;
+    private static final Pattern PLAYREADY_KID = Pattern.compile(
+            "<KID(?:\\s[^>]*?VALUE=\"([^\"]+)\")?[^>]*>([^<]*)");
+
+    private DrmKeyIds() {
+    }
+
+    /**
+     * Returns the sorted key IDs of the PSSH box of {@code uuid} in {@code drmInitData}, joined
+     * into one string, or null if there is no box or it names no key IDs.
+     */
+    public static String get(DrmInitData drmInitData, UUID uuid) {
+        DrmInitData.SchemeData schemeData = drmInitData != null ? drmInitData.get(uuid) : null;
+        if (schemeData == null || schemeData.data == null) {
+            return null;
+        }
+        Set<String> keyIds = new TreeSet<>();
+        try {
+            parsePssh(ByteBuffer.wrap(schemeData.data), uuid, keyIds);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (keyIds.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String keyId : keyIds) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(keyId);
+        }
+        return builder.toString();
+    }
+
+    private static void parsePssh(ByteBuffer box, UUID uuid, Set<String> keyIds) {
+        int size = box.getInt();
+        if (size != box.limit() || box.getInt() != TYPE_PSSH) {
+            return;
+        }
+        int version = box.getInt() >>> 24;
+        box.position(box.position() + 16);
+        if (version > 0) {
+            int keyIdCount = box.getInt();
+            for (int i = 0; i < keyIdCount; i++) {
+                byte[] keyId = new byte[KEY_ID_LENGTH];
+                box.get(keyId);
+                keyIds.add(toHex(keyId));
+            }
+            if (!keyIds.isEmpty()) {
+                return;
+            }
+        }
+        int dataSize = box.getInt();
+        ByteBuffer data = ByteBuffer.wrap(box.array(), box.position(), dataSize).slice();
+        if (C.WIDEVINE_UUID.equals(uuid)) {
+            parseWidevineData(data, keyIds);
+        } else if (C.PLAYREADY_UUID.equals(uuid)) {
+            parsePlayReadyData(data, keyIds);
+        }
+    }
+
+    /**
+     * Reads the key_id fields of a WidevineCencHeader message.
+     */
+    private static void parseWidevineData(ByteBuffer data, Set<String> keyIds) {
+        while (data.hasRemaining()) {
+            int tag = (int) readVarint(data);
+            switch (tag & 7) {
+                case 0:
+                    readVarint(data);
+                    break;
+                case 1:
+                    data.position(data.position() + 8);
+                    break;
+                case 2:
+                    int length = (int) readVarint(data);
+                    if (tag == WIDEVINE_KEY_ID_TAG) {
+                        byte[] keyId = new byte[length];
+                        data.get(keyId);
+                        keyIds.add(toHex(keyId));
+                    } else {
+                        data.position(data.position() + length);
+                    }
+                    break;
+                case 5:
+                    data.position(data.position() + 4);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Reads the KIDs of the rights management header records of a PlayReady object.
+     */
+    private static void parsePlayReadyData(ByteBuffer data, Set<String> keyIds) {
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        data.getInt();
+        int recordCount = data.getShort() & 0xFFFF;
+        for (int i = 0; i < recordCount; i++) {
+            int type = data.getShort() & 0xFFFF;
+            int length = data.getShort() & 0xFFFF;
+            if (type != PLAYREADY_RECORD_HEADER) {
+                data.position(data.position() + length);
+                continue;
+            }
+            byte[] record = new byte[length];
+            data.get(record);
+            Matcher matcher = PLAYREADY_KID.matcher(new String(record, Charset.forName("UTF-16LE")));
+            while (matcher.find()) {
+                String value = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+                if (value != null && !value.trim().isEmpty()) {
+                    keyIds.add(toHex(Base64.decode(value.trim(), Base64.DEFAULT)));
+                }
+            }
+        }
+    }
+
+    private static long readVarint(ByteBuffer data) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = data.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,225 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.drm.DrmInitData;
+import com.google.android.exoplayer2.drm.DrmSession;
+import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
+import com.google.android.exoplayer2.drm.HttpMediaDrmCallback;
+import com.google.android.exoplayer2.drm.OfflineLicenseHelper;
+import com.google.android.exoplayer2.drm.UnsupportedDrmException;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+import android.util.Pair;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores offline DRM licenses so protected content can start without waiting for a license
+ * request.
+ * <p>
+ * Licenses are keyed by a content ID derived from the PSSH data of the stream. A license is fetched
+ * in the background the first time a stream is played and only if the license server grants
+ * offline keys; {@link SharedDrmSessionManager} restores it when a session for the same content is
+ * opened. Licenses close to
+ * expiry are renewed in the background; expired ones are dropped.
+ */
+public class DrmLicenseStore {
+
+    private static final String TAG = DrmLicenseStore.class.getSimpleName();
+
+    private static final String PREFS_NAME = "nm_drm_licenses";
+    private static final String KEY_KEY_SET_ID = "keySetId.";
+    private static final String KEY_EXPIRES = "expires.";
+    private static final String KEY_UNAVAILABLE = "unavailable.";
+
+    public static final long RENEW_THRESHOLD_MS = 60 * 60 * 1000L;
+    private static final long UNAVAILABLE_RETRY_MS = 24 * 60 * 60 * 1000L;
+
+    private static DrmLicenseStore instance;
+
+    private final SharedPreferences preferences;
+    private final ExecutorService executor;
+    private final Set<String> pendingContentIds;
+
+    public static synchronized DrmLicenseStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new DrmLicenseStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DrmLicenseStore(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        executor = Executors.newSingleThreadExecutor();
+        pendingContentIds = new HashSet<>();
+    }
+
+    /**
+     * Returns the content ID of the scheme data for {@code uuid} in {@code drmInitData}, or null if
+     * the stream carries none.
+     */
+    public static String getContentId(DrmInitData drmInitData, UUID uuid) {
+        DrmInitData.SchemeData schemeData = drmInitData != null ? drmInitData.get(uuid) : null;
+        if (schemeData == null || schemeData.data == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return Base64.encodeToString(digest.digest(schemeData.data),
+                    Base64.NO_WRAP | Base64.NO_PADDING | Base64.URL_SAFE);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stored key set ID for {@code contentId}, or null if there is none or it has
+     * expired.
+     */
+    public byte[] getKeySetId(String contentId) {
+        if (contentId == null) {
+            return null;
+        }
+        String keySetId = preferences.getString(KEY_KEY_SET_ID + contentId, null);
+        if (keySetId == null) {
+            return null;
+        }
+        if (preferences.getLong(KEY_EXPIRES + contentId, 0) <= System.currentTimeMillis()) {
+            remove(contentId);
+            return null;
+        }
+        return Base64.decode(keySetId, Base64.DEFAULT);
+    }
+
+    /**
+     * Fetches or renews the offline license for {@code drmInitData} in the background when needed.
+     */
+    public void onContentLoaded(UUID uuid, DrmInitData drmInitData, String licenseUrl,
+                                Map<String, String> keyRequestProperties,
+                                HttpDataSource.Factory httpDataSourceFactory) {
+        String contentId = getContentId(drmInitData, uuid);
+        if (contentId == null) {
+            return;
+        }
+        if (getKeySetId(contentId) != null) {
+            if (preferences.getLong(KEY_EXPIRES + contentId, 0) - System.currentTimeMillis()
+                    < RENEW_THRESHOLD_MS) {
+                schedule(contentId, uuid, null, licenseUrl, keyRequestProperties, httpDataSourceFactory);
+            }
+        } else if (preferences.getLong(KEY_UNAVAILABLE + contentId, 0) < System.currentTimeMillis()) {
+            schedule(contentId, uuid, drmInitData, licenseUrl, keyRequestProperties, httpDataSourceFactory);
+        }
+    }
+
+    public void remove(String contentId) {
+        preferences.edit()
+                .remove(KEY_KEY_SET_ID + contentId)
+                .remove(KEY_EXPIRES + contentId)
+                .apply();
+    }
+
+    /**
+     * Downloads a new license if {@code drmInitData} is set, or renews the stored one otherwise.
+     */
+    private void schedule(final String contentId, final UUID uuid, final DrmInitData drmInitData,
+                          final String licenseUrl, final Map<String, String> keyRequestProperties,
+                          final HttpDataSource.Factory httpDataSourceFactory) {
+        synchronized (pendingContentIds) {
+            if (!pendingContentIds.add(contentId)) {
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(contentId, uuid, drmInitData, licenseUrl, keyRequestProperties, httpDataSourceFactory);
+                } finally {
+                    synchronized (pendingContentIds) {
+                        pendingContentIds.remove(contentId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Downloads the offline license for {@code drmInitData} on the calling thread, for content
+     * that must be playable without network access.
+     *
+     * @return Whether a license is now stored.
+     */
+    public boolean downloadLicense(UUID uuid, DrmInitData drmInitData, String licenseUrl,
+                                   Map<String, String> keyRequestProperties,
+                                   HttpDataSource.Factory httpDataSourceFactory) {
+        String contentId = getContentId(drmInitData, uuid);
+        if (contentId == null) {
+            return false;
+        }
+        if (getKeySetId(contentId) == null) {
+            fetch(contentId, uuid, drmInitData, licenseUrl, keyRequestProperties, httpDataSourceFactory);
+        }
+        return getKeySetId(contentId) != null;
+    }
+
+    private void fetch(String contentId, UUID uuid, DrmInitData drmInitData, String licenseUrl,
+                       Map<String, String> keyRequestProperties,
+                       HttpDataSource.Factory httpDataSourceFactory) {
+        OfflineLicenseHelper<FrameworkMediaCrypto> helper = null;
+        try {
+            helper = new OfflineLicenseHelper<>(FrameworkMediaDrm.newInstance(uuid),
+                    new HttpMediaDrmCallback(licenseUrl, httpDataSourceFactory, keyRequestProperties), null);
+            byte[] keySetId;
+            if (drmInitData != null) {
+                keySetId = helper.downloadLicense(drmInitData);
+            } else {
+                keySetId = helper.renewLicense(getStoredKeySetId(contentId));
+            }
+            Pair<Long, Long> remainingSec = helper.getLicenseDurationRemainingSec(keySetId);
+            store(contentId, keySetId, remainingSec.first);
+        } catch (UnsupportedDrmException | DrmSession.DrmSessionException e) {
+            Log.w(TAG, "Offline license unavailable for " + contentId, e);
+            preferences.edit()
+                    .putLong(KEY_UNAVAILABLE + contentId, System.currentTimeMillis() + UNAVAILABLE_RETRY_MS)
+                    .apply();
+        } finally {
+            if (helper != null) {
+                helper.releaseResources();
+            }
+        }
+    }
+
+    private byte[] getStoredKeySetId(String contentId) {
+        return Base64.decode(preferences.getString(KEY_KEY_SET_ID + contentId, ""), Base64.DEFAULT);
+    }
+
+    private void store(String contentId, byte[] keySetId, long remainingSec) {
+        if (keySetId == null || remainingSec <= 0) {
+            Log.d(TAG, "License for " + contentId + " cannot be stored offline");
+            preferences.edit()
+                    .putLong(KEY_UNAVAILABLE + contentId, System.currentTimeMillis() + UNAVAILABLE_RETRY_MS)
+                    .apply();
+            return;
+        }
+        // A duration of Long.MAX_VALUE means the license never expires.
+        long expiresAtMs = remainingSec == Long.MAX_VALUE ? Long.MAX_VALUE
+                : System.currentTimeMillis() + remainingSec * 1000;
+        preferences.edit()
+                .putString(KEY_KEY_SET_ID + contentId, Base64.encodeToString(keySetId, Base64.NO_WRAP))
+                .putLong(KEY_EXPIRES + contentId, expiresAtMs)
+                .remove(KEY_UNAVAILABLE + contentId)
+                .apply();
+        Log.d(TAG, "Stored offline license for " + contentId + ", expires in " + remainingSec + "s");
+    }
+}
@@ -32,8 +32,12 @@ import com.noriginmedia.react.R;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
+import android.view.PixelCopy;
 import android.view.SurfaceView;
 import android.view.TextureView;
 import android.view.View;
@@ -124,12 +128,25 @@ import java.util.List;
 @TargetApi(16)
 public class ExoPlayerView extends FrameLayout {
 
+  /**
+   * Listener of changes to the size the video is rendered within.
+   */
+  public interface ViewportListener {
+
+    /**
+     * Called when the view is laid out at a new size, in pixels.
+     */
+    void onViewportSizeChanged(int width, int height);
+  }
+
   private final AspectRatioFrameLayout contentFrame;
   private final View surfaceView;
+  private final ImageView frozenFrameView;
   private final SubtitleView subtitleView;
   private final ComponentListener componentListener;
 
   private SimpleExoPlayer player;
+  private ViewportListener viewportListener;
 
   public ExoPlayerView(Context context) {
     this(context, null);
@@ -162,8 +179,15 @@ public class ExoPlayerView extends FrameLayout {
       surfaceView = new SurfaceView(context);
       surfaceView.setLayoutParams(params);
       contentFrame.addView(surfaceView, 0);
+      frozenFrameView = new ImageView(context);
+      frozenFrameView.setLayoutParams(new ViewGroup.LayoutParams(
+          ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+      frozenFrameView.setScaleType(ImageView.ScaleType.FIT_XY);
+      frozenFrameView.setVisibility(GONE);
+      contentFrame.addView(frozenFrameView, 1);
     } else {
       surfaceView = null;
+      frozenFrameView = null;
     }
 
     // Subtitle view.
@@ -210,6 +234,74 @@ public class ExoPlayerView extends FrameLayout {
     }
   }
 
+  /**
+   * Copies the frame on screen into a bitmap that stays in place of the video until the next frame
+   * is rendered or {@link #clearFrozenFrame()} is called, so the player can be released without
+   * the view going blank. {@code onFrozen} is called on the main thread once the copy is done,
+   * and straight away if there is no frame to copy.
+   * <p>
+   * A {@link SurfaceView} can only be read back with {@link PixelCopy}, so on releases before
+   * API 24 no frame is kept.
+   */
+  public void freezeFrame(final Runnable onFrozen) {
+    if (player == null || frozenFrameView == null || Build.VERSION.SDK_INT < 24
+        || surfaceView.getWidth() == 0 || surfaceView.getHeight() == 0
+        || !((SurfaceView) surfaceView).getHolder().getSurface().isValid()) {
+      onFrozen.run();
+      return;
+    }
+    copyFrame(onFrozen);
+  }
+
+  @TargetApi(24)
+  private void copyFrame(final Runnable onFrozen) {
+    final Bitmap bitmap = Bitmap.createBitmap(surfaceView.getWidth(), surfaceView.getHeight(),
+        Bitmap.Config.ARGB_8888);
+    PixelCopy.request((SurfaceView) surfaceView, bitmap, new PixelCopy.OnPixelCopyFinishedListener() {
+      @Override
+      public void onPixelCopyFinished(int copyResult) {
+        if (copyResult == PixelCopy.SUCCESS) {
+          clearFrozenFrame();
+          frozenFrameView.setImageBitmap(bitmap);
+          frozenFrameView.setVisibility(VISIBLE);
+        } else {
+          bitmap.recycle();
+        }
+        onFrozen.run();
+      }
+    }, new Handler());
+  }
+
+  /**
+   * Removes the frame kept by {@link #freezeFrame(Runnable)}.
+   */
+  public void clearFrozenFrame() {
+    if (frozenFrameView == null || frozenFrameView.getVisibility() == GONE) {
+      return;
+    }
+    frozenFrameView.setVisibility(GONE);
+    frozenFrameView.setImageBitmap(null);
+  }
+
+  /**
+   * Sets the listener that is told about size changes of the view, such as a switch to fullscreen.
+   * The listener is called straight away if the view has been laid out.
+   */
+  public void setViewportListener(ViewportListener listener) {
+    viewportListener = listener;
+    if (listener != null && getWidth() > 0 && getHeight() > 0) {
+      listener.onViewportSizeChanged(getWidth(), getHeight());
+    }
+  }
+
+  @Override
+  protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+    super.onSizeChanged(width, height, oldWidth, oldHeight);
+    if (viewportListener != null) {
+      viewportListener.onViewportSizeChanged(width, height);
+    }
+  }
+
   /**
    * Sets the resize mode.
    *
@@ -274,6 +366,7 @@ public class ExoPlayerView extends FrameLayout {
 
     @Override
     public void onRenderedFirstFrame() {
+      clearFrozenFrame();
     }
 
     @Override
@@ -0,0 +1,27 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import android.net.Uri;
+
+/**
+ * Supplies the HTTP stack that {@link VideoPlayer} loads manifests, segments and licenses with.
+ */
+public interface HttpDataSourceFactoryProvider {
+
+    /**
+     * Returns a factory for HTTP data sources that report transfers to {@code listener}.
+     *
+     * @param userAgent The User-Agent to send.
+     * @param listener  An optional listener, typically the bandwidth meter.
+     */
+    HttpDataSource.Factory createFactory(String userAgent, TransferListener<? super DataSource> listener);
+
+    /**
+     * Hints that requests to the host of {@code uri} are about to be made, so that a connection to
+     * it can be set up ahead of time. Implementations may ignore it.
+     */
+    void preconnect(Uri uri, String userAgent);
+}
@@ -0,0 +1,157 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaPeriod;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.upstream.Allocator;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+
+/**
+ * A {@link MediaSource} that prepares the source it wraps only once {@link #load()} has been
+ * called, so a playlist can be concatenated as a whole while only the items near the playing one
+ * load their manifests.
+ * <p>
+ * Until then it reports a placeholder timeline of one window whose default position is unknown.
+ * The player does not start loading such a window, so playback waits at its start rather than
+ * skipping it, and moves on as soon as the real timeline arrives.
+ */
+public class LazyMediaSource implements MediaSource, MediaSource.Listener {
+
+    private final MediaSource mediaSource;
+
+    private ExoPlayer player;
+    private Listener listener;
+    private Handler playbackHandler;
+    private boolean loadRequested;
+    private boolean loading;
+
+    /**
+     * @param mediaSource The source to wrap.
+     * @param load        Whether to prepare it straight away, as if {@link #load()} had been called.
+     */
+    public LazyMediaSource(MediaSource mediaSource, boolean load) {
+        this.mediaSource = mediaSource;
+        this.loadRequested = load;
+    }
+
+    /**
+     * Prepares the wrapped source, if it is not prepared yet. May be called from any thread.
+     */
+    public void load() {
+        Handler handler;
+        synchronized (this) {
+            if (loadRequested) {
+                return;
+            }
+            loadRequested = true;
+            handler = playbackHandler;
+        }
+        if (handler != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    startLoading();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void prepareSource(ExoPlayer player, boolean isTopLevelSource, Listener listener) {
+        this.player = player;
+        this.listener = listener;
+        boolean load;
+        synchronized (this) {
+            playbackHandler = new Handler(Looper.myLooper());
+            load = loadRequested;
+        }
+        if (load) {
+            startLoading();
+        } else {
+            listener.onSourceInfoRefreshed(new PlaceholderTimeline(), null);
+        }
+    }
+
+    private void startLoading() {
+        if (!loading && listener != null) {
+            loading = true;
+            mediaSource.prepareSource(player, false, this);
+        }
+    }
+
+    @Override
+    public void onSourceInfoRefreshed(Timeline timeline, Object manifest) {
+        listener.onSourceInfoRefreshed(timeline, manifest);
+    }
+
+    @Override
+    public void maybeThrowSourceInfoRefreshError() throws IOException {
+        if (loading) {
+            mediaSource.maybeThrowSourceInfoRefreshError();
+        }
+    }
+
+    @Override
+    public MediaPeriod createPeriod(int index, Allocator allocator, long positionUs) {
+        return mediaSource.createPeriod(index, allocator, positionUs);
+    }
+
+    @Override
+    public void releasePeriod(MediaPeriod mediaPeriod) {
+        mediaSource.releasePeriod(mediaPeriod);
+    }
+
+    @Override
+    public void releaseSource() {
+        synchronized (this) {
+            playbackHandler = null;
+        }
+        if (loading) {
+            loading = false;
+            mediaSource.releaseSource();
+        }
+        listener = null;
+        player = null;
+    }
+
+    /**
+     * A single dynamic window of unknown duration and default position.
+     */
+    private static final class PlaceholderTimeline extends Timeline {
+
+        private static final Object ID = new Object();
+
+        @Override
+        public int getWindowCount() {
+            return 1;
+        }
+
+        @Override
+        public Window getWindow(int windowIndex, Window window, boolean setIds,
+                                long defaultPositionProjectionUs) {
+            return window.set(setIds ? ID : null, C.TIME_UNSET, C.TIME_UNSET, false, true, C.TIME_UNSET,
+                    C.TIME_UNSET, 0, 0, 0);
+        }
+
+        @Override
+        public int getPeriodCount() {
+            return 1;
+        }
+
+        @Override
+        public Period getPeriod(int periodIndex, Period period, boolean setIds) {
+            return period.set(setIds ? ID : null, setIds ? ID : null, 0, C.TIME_UNSET, 0);
+        }
+
+        @Override
+        public int getIndexOfPeriod(Object uid) {
+            return ID.equals(uid) ? 0 : C.INDEX_UNSET;
+        }
+    }
+}
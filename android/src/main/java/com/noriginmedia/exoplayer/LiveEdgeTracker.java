@@ -0,0 +1,209 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps playback of live streams within a target distance of the live edge.
+ * <p>
+ * The latency is the wall-clock time minus the program time of the playback position, taken from
+ * the window start time the manifest announces (the DASH availability start time, or the HLS
+ * program date time). Streams that do not announce one are measured against the end of the
+ * available window instead. Playback joins a live stream at the target latency and jumps back to it
+ * when a rebuffer or a slow start has left it more than the maximum drift behind. This version of
+ * ExoPlayer cannot change the playback speed, so catching up is always a seek.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class LiveEdgeTracker implements ExoPlayer.EventListener {
+
+    private static final String TAG = LiveEdgeTracker.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_DRIFT_MS = 5000;
+
+    private static final long UPDATE_INTERVAL_MS = 1000;
+    private static final long SEEK_COOLDOWN_MS = 10000;
+    /**
+     * How close to the end of the available window playback may be placed, so the player is not
+     * left waiting for a segment that is not published yet.
+     */
+    private static final long MIN_EDGE_DISTANCE_MS = 3000;
+
+    public interface Listener {
+
+        /**
+         * Called about once a second while a live stream plays.
+         *
+         * @param latencyMs       The current distance from the live edge.
+         * @param targetLatencyMs The target latency, or {@link C#TIME_UNSET} if catch-up is off.
+         */
+        void onLiveLatencyChanged(long latencyMs, long targetLatencyMs);
+    }
+
+    private final Handler handler;
+    private final Timeline.Window window;
+
+    private ExoPlayer player;
+    private Listener listener;
+    private long targetLatencyMs = C.TIME_UNSET;
+    private long maxDriftMs = DEFAULT_MAX_DRIFT_MS;
+    private long lastSeekMs;
+    private boolean joined;
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    public LiveEdgeTracker(Handler handler) {
+        this.handler = handler;
+        window = new Timeline.Window();
+    }
+
+    public void attach(ExoPlayer player) {
+        detach();
+        this.player = player;
+        player.addListener(this);
+        reset();
+    }
+
+    public void detach() {
+        handler.removeCallbacks(updateRunnable);
+        if (player != null) {
+            player.removeListener(this);
+            player = null;
+        }
+    }
+
+    /**
+     * Makes the next live stream the player loads join at the target latency.
+     */
+    public void reset() {
+        joined = false;
+        lastSeekMs = 0;
+    }
+
+    /**
+     * Sets the distance from the live edge to keep, or {@link C#TIME_UNSET} to only report the
+     * latency.
+     */
+    public void setTargetLatency(long targetLatencyMs) {
+        this.targetLatencyMs = targetLatencyMs;
+    }
+
+    /**
+     * Sets how far beyond the target latency playback may fall behind before it seeks.
+     */
+    public void setMaxDrift(long maxDriftMs) {
+        this.maxDriftMs = Math.max(0, maxDriftMs);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the distance of the playback position from the live edge, or {@link C#TIME_UNSET} if
+     * the current window is not live.
+     */
+    public long getCurrentLatency() {
+        Timeline timeline = player != null ? player.getCurrentTimeline() : null;
+        if (timeline == null || timeline.getWindowCount() == 0) {
+            return C.TIME_UNSET;
+        }
+        timeline.getWindow(player.getCurrentWindowIndex(), window);
+        if (!window.isDynamic) {
+            return C.TIME_UNSET;
+        }
+        long positionMs = player.getCurrentPosition();
+        if (window.windowStartTimeMs != C.TIME_UNSET) {
+            return System.currentTimeMillis() - (window.windowStartTimeMs + positionMs);
+        }
+        long durationMs = window.getDurationMs();
+        return durationMs != C.TIME_UNSET ? durationMs - positionMs : C.TIME_UNSET;
+    }
+
+    private void update() {
+        handler.removeCallbacks(updateRunnable);
+        long latencyMs = getCurrentLatency();
+        if (latencyMs == C.TIME_UNSET) {
+            return;
+        }
+        if (listener != null) {
+            listener.onLiveLatencyChanged(latencyMs, targetLatencyMs);
+        }
+        if (targetLatencyMs != C.TIME_UNSET && player.getPlayWhenReady()
+                && player.getPlaybackState() == ExoPlayer.STATE_READY
+                && latencyMs - targetLatencyMs > maxDriftMs
+                && SystemClock.elapsedRealtime() - lastSeekMs >= SEEK_COOLDOWN_MS) {
+            Log.d(TAG, "Latency " + latencyMs + " ms exceeds target " + targetLatencyMs + " ms, seeking");
+            seekToTarget(latencyMs);
+        }
+        handler.postDelayed(updateRunnable, UPDATE_INTERVAL_MS);
+    }
+
+    /**
+     * Seeks so that the latency becomes the target latency, as far as the available window allows.
+     */
+    private void seekToTarget(long latencyMs) {
+        long durationMs = window.getDurationMs();
+        long positionMs = player.getCurrentPosition() + latencyMs - targetLatencyMs;
+        if (durationMs != C.TIME_UNSET) {
+            positionMs = Math.min(positionMs, durationMs - MIN_EDGE_DISTANCE_MS);
+        }
+        lastSeekMs = SystemClock.elapsedRealtime();
+        player.seekTo(player.getCurrentWindowIndex(), Math.max(0, positionMs));
+    }
+
+    @Override
+    public void onTimelineChanged(Timeline timeline, Object manifest) {
+        if (!joined && targetLatencyMs != C.TIME_UNSET) {
+            long latencyMs = getCurrentLatency();
+            if (latencyMs != C.TIME_UNSET) {
+                joined = true;
+                seekToTarget(latencyMs);
+            }
+        }
+        update();
+    }
+
+    @Override
+    public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onLoadingChanged(boolean isLoading) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        // Checks straight away when playback resumes after a rebuffer.
+        if (playbackState == ExoPlayer.STATE_READY) {
+            update();
+        } else if (playbackState == ExoPlayer.STATE_IDLE || playbackState == ExoPlayer.STATE_ENDED) {
+            handler.removeCallbacks(updateRunnable);
+        }
+    }
+
+    @Override
+    public void onPlayerError(ExoPlaybackException error) {
+        // Do nothing.
+    }
+
+    @Override
+    public void onPositionDiscontinuity() {
+        // Do nothing.
+    }
+}
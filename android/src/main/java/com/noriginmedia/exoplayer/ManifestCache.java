@@ -0,0 +1,310 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-memory cache of DASH, HLS and SmoothStreaming manifests keyed by URI.
+ * <p>
+ * Entries hold the raw manifest bytes and, when known, the parsed manifest. Static (VOD) manifests
+ * are kept for {@link #DEFAULT_VOD_TTL_MS} and can be handed to the media source directly, skipping
+ * both the request and the parse. Live manifests expire after {@link #DEFAULT_LIVE_TTL_MS} and are
+ * only ever served as bytes, so the media source keeps refreshing them.
+ */
+public class ManifestCache {
+
+    private static final String TAG = ManifestCache.class.getSimpleName();
+
+    public static final long DEFAULT_VOD_TTL_MS = 5 * 60 * 1000;
+    public static final long DEFAULT_LIVE_TTL_MS = 2000;
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private static ManifestCache instance;
+
+    private final LinkedHashMap<Uri, Entry> entries;
+    private final ExecutorService prefetchExecutor;
+
+    private long vodTtlMs;
+    private long liveTtlMs;
+    private int maxEntries;
+
+    public static synchronized ManifestCache getInstance() {
+        if (instance == null) {
+            instance = new ManifestCache();
+        }
+        return instance;
+    }
+
+    private ManifestCache() {
+        entries = new LinkedHashMap<Uri, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Uri, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        prefetchExecutor = Executors.newSingleThreadExecutor();
+        vodTtlMs = DEFAULT_VOD_TTL_MS;
+        liveTtlMs = DEFAULT_LIVE_TTL_MS;
+        maxEntries = DEFAULT_MAX_ENTRIES;
+    }
+
+    public synchronized void setTtl(long vodTtlMs, long liveTtlMs) {
+        this.vodTtlMs = vodTtlMs;
+        this.liveTtlMs = liveTtlMs;
+    }
+
+    /**
+     * Returns the cached entry for {@code uri}, or null if there is none or it has expired.
+     */
+    public synchronized Entry get(Uri uri) {
+        Entry entry = entries.get(uri);
+        if (entry != null && entry.expiresAtMs <= SystemClock.elapsedRealtime()) {
+            entries.remove(uri);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the parsed manifest for {@code uri} if it is cached and static, or null otherwise.
+     */
+    public Object getStaticManifest(Uri uri) {
+        Entry entry = get(uri);
+        return entry != null && !entry.live ? entry.manifest : null;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Sets how many manifests are kept, dropping the least recently used ones above it.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        Iterator<Uri> iterator = entries.keySet().iterator();
+        while (entries.size() > this.maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Records the manifest a media source has loaded for {@code uri}, so the next prepare of the
+     * same static stream can skip loading it.
+     */
+    public synchronized void onManifestLoaded(Uri uri, Object manifest) {
+        if (manifest == null) {
+            return;
+        }
+        Entry entry = entries.get(uri);
+        put(uri, entry != null ? entry.data : null, manifest, isLive(manifest));
+    }
+
+    /**
+     * Fetches and parses the manifests of {@code uris} in the background.
+     */
+    public void prefetch(final List<String> uris, final DataSource.Factory dataSourceFactory) {
+        prefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String uriString : uris) {
+                    Uri uri = Uri.parse(uriString);
+                    if (get(uri) != null) {
+                        continue;
+                    }
+                    try {
+                        load(uri, dataSourceFactory.createDataSource());
+                    } catch (IOException e) {
+                        Log.w(TAG, "Manifest prefetch failed for " + uri, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wraps {@code upstreamFactory} so that requests for {@code manifestUri} are served from the
+     * cache while fresh, and recorded into it otherwise. Other requests pass straight through.
+     */
+    public DataSource.Factory buildDataSourceFactory(final Uri manifestUri,
+                                                     final DataSource.Factory upstreamFactory) {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new ManifestCacheDataSource(manifestUri, upstreamFactory.createDataSource());
+            }
+        };
+    }
+
+    private void load(Uri uri, DataSource dataSource) throws IOException {
+        byte[] data = readFully(dataSource, new DataSpec(uri));
+        Object manifest = parse(uri, data);
+        put(uri, data, manifest, manifest == null || isLive(manifest));
+        Log.d(TAG, "Prefetched manifest " + uri);
+    }
+
+    private synchronized void put(Uri uri, byte[] data, Object manifest, boolean live) {
+        long ttl = live ? liveTtlMs : vodTtlMs;
+        entries.put(uri, new Entry(data, manifest, live, SystemClock.elapsedRealtime() + ttl));
+    }
+
+    private static Object parse(Uri uri, byte[] data) throws IOException {
+        int type = ContentTypeProbe.inferContentType(uri);
+        if (type == ContentTypeProbe.TYPE_UNKNOWN) {
+            type = ContentTypeProbe.classify(null, data);
+        }
+        switch (type) {
+            case C.TYPE_DASH:
+                return new DashManifestParser().parse(uri, new ByteArrayInputStream(data));
+            case C.TYPE_SS:
+                return new SsManifestParser().parse(uri, new ByteArrayInputStream(data));
+            case C.TYPE_HLS:
+                return new HlsPlaylistParser().parse(uri, new ByteArrayInputStream(data));
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isLive(Object manifest) {
+        if (manifest instanceof DashManifest) {
+            return ((DashManifest) manifest).dynamic;
+        } else if (manifest instanceof SsManifest) {
+            return ((SsManifest) manifest).isLive;
+        } else if (manifest instanceof HlsMediaPlaylist) {
+            return !((HlsMediaPlaylist) manifest).hasEndTag;
+        }
+        // Master playlists only list variants and do not change for live streams.
+        return !(manifest instanceof HlsMasterPlaylist);
+    }
+
+    private static byte[] readFully(DataSource dataSource, DataSpec dataSpec) throws IOException {
+        try {
+            dataSource.open(dataSpec);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    public static final class Entry {
+
+        public final byte[] data;
+        public final Object manifest;
+        public final boolean live;
+        private final long expiresAtMs;
+
+        private Entry(byte[] data, Object manifest, boolean live, long expiresAtMs) {
+            this.data = data;
+            this.manifest = manifest;
+            this.live = live;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private final class ManifestCacheDataSource implements DataSource {
+
+        private final Uri manifestUri;
+        private final DataSource upstream;
+
+        private Uri uri;
+        private byte[] cachedData;
+        private int readPosition;
+        private ByteArrayOutputStream recording;
+        private boolean upstreamOpen;
+
+        private ManifestCacheDataSource(Uri manifestUri, DataSource upstream) {
+            this.manifestUri = manifestUri;
+            this.upstream = upstream;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            uri = dataSpec.uri;
+            boolean isManifest = manifestUri.equals(dataSpec.uri) && dataSpec.position == 0
+                    && dataSpec.length == C.LENGTH_UNSET;
+            Entry entry = isManifest ? get(dataSpec.uri) : null;
+            if (entry != null && entry.data != null) {
+                cachedData = entry.data;
+                readPosition = 0;
+                return cachedData.length;
+            }
+            long length = upstream.open(dataSpec);
+            upstreamOpen = true;
+            recording = isManifest ? new ByteArrayOutputStream() : null;
+            return length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            if (cachedData != null) {
+                if (readPosition == cachedData.length) {
+                    return C.RESULT_END_OF_INPUT;
+                }
+                int read = Math.min(readLength, cachedData.length - readPosition);
+                System.arraycopy(cachedData, readPosition, buffer, offset, read);
+                readPosition += read;
+                return read;
+            }
+            int read = upstream.read(buffer, offset, readLength);
+            if (read == C.RESULT_END_OF_INPUT) {
+                if (recording != null) {
+                    byte[] data = recording.toByteArray();
+                    put(manifestUri, data, null, !isMasterPlaylist(data));
+                    recording = null;
+                }
+            } else if (recording != null) {
+                recording.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return uri;
+        }
+
+        @Override
+        public void close() throws IOException {
+            cachedData = null;
+            recording = null;
+            uri = null;
+            if (upstreamOpen) {
+                upstreamOpen = false;
+                upstream.close();
+            }
+        }
+
+        private boolean isMasterPlaylist(byte[] data) {
+            return new String(data).contains("#EXT-X-STREAM-INF");
+        }
+    }
+}
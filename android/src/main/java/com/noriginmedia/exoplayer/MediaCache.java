@@ -0,0 +1,288 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide, size-capped on-disk cache for media bytes.
+ * <p>
+ * Spans are keyed by the {@link DataSpec} key (or URI) and byte range, and evicted in least
+ * recently used order once the configured size is exceeded. A {@link SimpleCache} may only be
+ * opened once per directory, so all players share the instance returned by
+ * {@link #getInstance(Context, long)}.
+ */
+public class MediaCache {
+
+    private static final String TAG = MediaCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "nm_media_cache";
+    private static final long MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+
+    private static MediaCache instance;
+
+    private final SimpleCache cache;
+    private final long maxBytes;
+
+    private final AtomicLong hitBytes = new AtomicLong();
+    private final AtomicLong missBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Returns the shared cache, creating it on first use.
+     *
+     * @param context  Any context, the application context is retained.
+     * @param maxBytes The maximum size of the cache. Ignored once the cache has been created.
+     */
+    public static synchronized MediaCache getInstance(Context context, long maxBytes) {
+        if (instance == null) {
+            File dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            instance = new MediaCache(dir, maxBytes);
+        } else if (instance.maxBytes != maxBytes) {
+            Log.w(TAG, "Media cache already created with " + instance.maxBytes + " bytes, ignoring "
+                    + maxBytes);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the shared cache, or null if no player has created it yet.
+     */
+    public static synchronized MediaCache getInstance() {
+        return instance;
+    }
+
+    private MediaCache(File dir, long maxBytes) {
+        this.maxBytes = maxBytes;
+        cache = new SimpleCache(dir, new CountingEvictor(maxBytes));
+    }
+
+    /**
+     * Wraps {@code upstreamFactory} so that reads are served from the cache where possible and
+     * written to it otherwise. Manifest and playlist loads always go upstream.
+     */
+    public DataSource.Factory buildDataSourceFactory(DataSource.Factory upstreamFactory) {
+        return buildDataSourceFactory(upstreamFactory, null);
+    }
+
+    /**
+     * Like {@link #buildDataSourceFactory(DataSource.Factory)}, also sending requests for
+     * {@code manifestUri} upstream.
+     *
+     * @param manifestUri The manifest of an adaptive stream, or null for a progressive stream.
+     */
+    public DataSource.Factory buildDataSourceFactory(DataSource.Factory upstreamFactory, Uri manifestUri) {
+        return new CachingDataSourceFactory(upstreamFactory, manifestUri);
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getCacheSpace() {
+        return cache.getCacheSpace();
+    }
+
+    /**
+     * Returns the number of bytes served from the cache.
+     */
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes that had to be fetched from upstream.
+     */
+    public long getMissBytes() {
+        return missBytes.get();
+    }
+
+    /**
+     * Returns the number of spans evicted to keep the cache under its size limit.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public void resetCounters() {
+        hitBytes.set(0);
+        missBytes.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Counts the spans the LRU evictor removes to make room. Spans the cache removes for other
+     * reasons, such as stale files, are not evictions.
+     */
+    private final class CountingEvictor implements CacheEvictor {
+
+        private final LeastRecentlyUsedCacheEvictor evictor;
+        // The evictor removes spans synchronously from within these callbacks, on the cache's lock.
+        private boolean evicting;
+
+        private CountingEvictor(long maxBytes) {
+            evictor = new LeastRecentlyUsedCacheEvictor(maxBytes);
+        }
+
+        @Override
+        public void onStartFile(Cache cache, String key, long position, long length) {
+            evicting = true;
+            try {
+                evictor.onStartFile(cache, key, position, length);
+            } finally {
+                evicting = false;
+            }
+        }
+
+        @Override
+        public void onSpanAdded(Cache cache, CacheSpan span) {
+            evicting = true;
+            try {
+                evictor.onSpanAdded(cache, span);
+            } finally {
+                evicting = false;
+            }
+        }
+
+        @Override
+        public void onSpanRemoved(Cache cache, CacheSpan span) {
+            if (evicting) {
+                evictions.incrementAndGet();
+            }
+            evictor.onSpanRemoved(cache, span);
+        }
+
+        @Override
+        public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+            evictor.onSpanTouched(cache, oldSpan, newSpan);
+        }
+    }
+
+    private final class CachingDataSourceFactory implements DataSource.Factory,
+            CacheDataSource.EventListener {
+
+        private final DataSource.Factory upstreamFactory;
+        private final Uri manifestUri;
+
+        private CachingDataSourceFactory(DataSource.Factory upstreamFactory, Uri manifestUri) {
+            this.upstreamFactory = upstreamFactory;
+            this.manifestUri = manifestUri;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            DataSource upstream = upstreamFactory.createDataSource();
+            DataSource cacheDataSource = new CacheDataSource(cache, new CountingDataSource(upstream),
+                    new FileDataSource(), new CacheDataSink(cache, MAX_CACHE_FILE_SIZE),
+                    CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR, this);
+            return new ManifestBypassDataSource(upstream, cacheDataSource, manifestUri);
+        }
+
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            hitBytes.addAndGet(cachedBytesRead);
+        }
+    }
+
+    /**
+     * Sends manifest and playlist requests straight upstream, since live manifests change between
+     * requests and must never be served from disk. Those are requests for the stream's own
+     * manifest, and requests ExoPlayer loads manifests with, which allow gzip while media requests
+     * do not. URLs are not relied on, as tokenised manifest URLs often have no extension.
+     */
+    private static final class ManifestBypassDataSource implements DataSource {
+
+        private final DataSource upstream;
+        private final DataSource cacheDataSource;
+        private final Uri manifestUri;
+        private DataSource dataSource;
+
+        private ManifestBypassDataSource(DataSource upstream, DataSource cacheDataSource, Uri manifestUri) {
+            this.upstream = upstream;
+            this.cacheDataSource = cacheDataSource;
+            this.manifestUri = manifestUri;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            boolean manifest = (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0
+                    || dataSpec.uri.equals(manifestUri);
+            dataSource = manifest ? upstream : cacheDataSource;
+            return dataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return dataSource.read(buffer, offset, readLength);
+        }
+
+        @Override
+        public Uri getUri() {
+            return dataSource == null ? null : dataSource.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (dataSource != null) {
+                try {
+                    dataSource.close();
+                } finally {
+                    dataSource = null;
+                }
+            }
+        }
+    }
+
+    private final class CountingDataSource implements DataSource {
+
+        private final DataSource upstream;
+
+        private CountingDataSource(DataSource upstream) {
+            this.upstream = upstream;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            return upstream.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            int read = upstream.read(buffer, offset, readLength);
+            if (read != C.RESULT_END_OF_INPUT) {
+                missBytes.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return upstream.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            upstream.close();
+        }
+    }
+}
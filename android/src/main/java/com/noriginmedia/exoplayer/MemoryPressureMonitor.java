@@ -0,0 +1,148 @@
+package com.noriginmedia.exoplayer;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shrinks what the players hold in memory when the system reports memory pressure, so playback
+ * degrades instead of the process being killed.
+ * <p>
+ * {@link ComponentCallbacks2#onTrimMemory} levels are mapped onto {@link #LEVEL_MODERATE} and
+ * {@link #LEVEL_CRITICAL}. Each level holds the buffers of all players to a smaller fraction of
+ * their maximum, keeps fewer idle pooled players and cached manifests, and lets
+ * {@link Listener listeners} such as the players shed their own memory. The system does not report
+ * when pressure clears, so the level steps back down after {@link #RECOVERY_INTERVAL_MS} without a
+ * new report.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class MemoryPressureMonitor implements ComponentCallbacks2 {
+
+    private static final String TAG = MemoryPressureMonitor.class.getSimpleName();
+
+    public static final int LEVEL_NONE = 0;
+    public static final int LEVEL_MODERATE = 1;
+    public static final int LEVEL_CRITICAL = 2;
+
+    public static final long RECOVERY_INTERVAL_MS = 30000;
+
+    private static final float[] BUFFER_FRACTIONS = {1f, 0.5f, 0.25f};
+    private static final int[] POOL_LIMITS = {Integer.MAX_VALUE, 1, 0};
+    private static final int[] MANIFEST_LIMITS = {ManifestCache.DEFAULT_MAX_ENTRIES, 8, 0};
+
+    public interface Listener {
+
+        /**
+         * Called when the pressure level changes, in either direction.
+         */
+        void onMemoryPressureChanged(int level);
+    }
+
+    private static MemoryPressureMonitor instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final List<Listener> listeners;
+
+    private int level;
+
+    private final Runnable recoveryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            setLevel(level - 1);
+            if (level > LEVEL_NONE) {
+                handler.postDelayed(this, RECOVERY_INTERVAL_MS);
+            }
+        }
+    };
+
+    public static MemoryPressureMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new MemoryPressureMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MemoryPressureMonitor(Context context) {
+        this.context = context;
+        handler = new Handler(Looper.getMainLooper());
+        listeners = new ArrayList<>();
+        context.registerComponentCallbacks(this);
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public void onTrimMemory(int trimLevel) {
+        switch (trimLevel) {
+            case TRIM_MEMORY_RUNNING_MODERATE:
+            case TRIM_MEMORY_RUNNING_LOW:
+            case TRIM_MEMORY_BACKGROUND:
+                onPressure(LEVEL_MODERATE);
+                break;
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+            case TRIM_MEMORY_MODERATE:
+            case TRIM_MEMORY_COMPLETE:
+                onPressure(LEVEL_CRITICAL);
+                break;
+            default:
+                // TRIM_MEMORY_UI_HIDDEN says nothing about available memory.
+                break;
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onPressure(LEVEL_CRITICAL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Do nothing.
+    }
+
+    private void onPressure(int pressure) {
+        if (pressure >= level) {
+            setLevel(pressure);
+            handler.removeCallbacks(recoveryRunnable);
+            handler.postDelayed(recoveryRunnable, RECOVERY_INTERVAL_MS);
+        }
+    }
+
+    private void setLevel(int level) {
+        level = Math.max(LEVEL_NONE, Math.min(LEVEL_CRITICAL, level));
+        if (this.level == level) {
+            return;
+        }
+        Log.d(TAG, "Memory pressure level " + this.level + " -> " + level);
+        this.level = level;
+        CappedLoadControl.setBufferFraction(BUFFER_FRACTIONS[level]);
+        PlayerPool.getInstance(context).setPressureLimit(POOL_LIMITS[level]);
+        ManifestCache.getInstance().setMaxEntries(MANIFEST_LIMITS[level]);
+        if (level == LEVEL_CRITICAL) {
+            SharedDrmSessionManager.getInstance(context).releaseIdleSessions();
+        }
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onMemoryPressureChanged(level);
+        }
+    }
+}
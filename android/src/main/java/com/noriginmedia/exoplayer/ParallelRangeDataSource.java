@@ -0,0 +1,388 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link DataSource} that downloads a progressive file over several HTTP connections at once.
+ * <p>
+ * The first chunk of a request is streamed straight from the initial range request, so playback
+ * starts as with a single connection. Once the response confirms that the server honours ranges,
+ * the rest of the file is split into chunks fetched by parallel workers and handed to the reader in
+ * order. At most {@code maxBufferedChunks} chunks are fetched ahead of the read position, which
+ * bounds memory use to that many chunks. The number of workers is adapted to the measured
+ * aggregate throughput by the {@link Factory}, so it is learnt across requests.
+ * <p>
+ * Requests the server answers without a Content-Range, and requests that fit in one chunk, are
+ * passed through unchanged.
+ */
+public final class ParallelRangeDataSource implements DataSource {
+
+    private static final String TAG = ParallelRangeDataSource.class.getSimpleName();
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_BUFFERED_CHUNKS = 8;
+
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("^bytes \\d+-\\d+/(\\d+)$");
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ParallelRangeDataSource");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Creates {@link ParallelRangeDataSource}s that share one parallelism controller.
+     */
+    public static final class Factory implements DataSource.Factory {
+
+        private final HttpDataSource.Factory upstreamFactory;
+        private final int chunkSize;
+        private final int maxBufferedChunks;
+        private final ParallelismController controller;
+
+        /**
+         * @param upstreamFactory The factory of the HTTP data sources each connection uses.
+         * @param maxConnections  The maximum number of parallel workers.
+         */
+        public Factory(HttpDataSource.Factory upstreamFactory, int maxConnections) {
+            this(upstreamFactory, maxConnections, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_BUFFERED_CHUNKS);
+        }
+
+        public Factory(HttpDataSource.Factory upstreamFactory, int maxConnections, int chunkSize,
+                       int maxBufferedChunks) {
+            this.upstreamFactory = upstreamFactory;
+            this.chunkSize = chunkSize;
+            this.maxBufferedChunks = Math.max(1, maxBufferedChunks);
+            controller = new ParallelismController(Math.max(1, maxConnections));
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            return new ParallelRangeDataSource(upstreamFactory, chunkSize, maxBufferedChunks, controller);
+        }
+    }
+
+    private final HttpDataSource.Factory upstreamFactory;
+    private final int chunkSize;
+    private final int maxBufferedChunks;
+    private final ParallelismController controller;
+    private final ArrayDeque<Chunk> chunks;
+
+    private DataSpec dataSpec;
+    private HttpDataSource initialSource;
+    private long initialBytesRemaining;
+    private boolean passThrough;
+    private long nextChunkPosition;
+    private long endPosition;
+    private int readOffset;
+    private int activeWorkers;
+    private int generation;
+    private boolean closed;
+
+    private ParallelRangeDataSource(HttpDataSource.Factory upstreamFactory, int chunkSize,
+                                    int maxBufferedChunks, ParallelismController controller) {
+        this.upstreamFactory = upstreamFactory;
+        this.chunkSize = chunkSize;
+        this.maxBufferedChunks = maxBufferedChunks;
+        this.controller = controller;
+        chunks = new ArrayDeque<>();
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        synchronized (this) {
+            // Workers of a previous open may still be running. They see a new generation and leave
+            // the shared state alone, and stay closed out until the new range is set.
+            generation++;
+            closed = true;
+            chunks.clear();
+            this.dataSpec = dataSpec;
+            nextChunkPosition = 0;
+            endPosition = 0;
+            readOffset = 0;
+        }
+        initialSource = upstreamFactory.createDataSource();
+        if (dataSpec.length != C.LENGTH_UNSET && dataSpec.length <= 2L * chunkSize) {
+            return openPassThrough(dataSpec);
+        }
+        long firstLength = dataSpec.length == C.LENGTH_UNSET ? chunkSize
+                : Math.min(chunkSize, dataSpec.length);
+        initialSource.open(new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition, firstLength,
+                dataSpec.key, dataSpec.flags));
+        long resourceLength = getResourceLength(initialSource.getResponseHeaders());
+        if (resourceLength == C.LENGTH_UNSET) {
+            // Ranges are not supported, so fall back to a single connection for the whole request.
+            initialSource.close();
+            return openPassThrough(dataSpec);
+        }
+        synchronized (this) {
+            passThrough = false;
+            endPosition = dataSpec.length == C.LENGTH_UNSET ? resourceLength
+                    : Math.min(resourceLength, dataSpec.absoluteStreamPosition + dataSpec.length);
+            initialBytesRemaining = Math.min(firstLength, endPosition - dataSpec.absoluteStreamPosition);
+            nextChunkPosition = dataSpec.absoluteStreamPosition + initialBytesRemaining;
+            closed = false;
+            scheduleChunks();
+            return endPosition - dataSpec.absoluteStreamPosition;
+        }
+    }
+
+    private long openPassThrough(DataSpec dataSpec) throws IOException {
+        synchronized (this) {
+            passThrough = true;
+            closed = false;
+        }
+        return initialSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (passThrough) {
+            return initialSource.read(buffer, offset, readLength);
+        }
+        if (readLength == 0) {
+            return 0;
+        }
+        if (initialBytesRemaining > 0) {
+            int read = initialSource.read(buffer, offset, (int) Math.min(readLength, initialBytesRemaining));
+            if (read == C.RESULT_END_OF_INPUT) {
+                throw new IOException("Range response ended early");
+            }
+            initialBytesRemaining -= read;
+            return read;
+        }
+        synchronized (this) {
+            Chunk chunk;
+            while ((chunk = chunks.peekFirst()) == null) {
+                if (nextChunkPosition >= endPosition) {
+                    return C.RESULT_END_OF_INPUT;
+                }
+                // Workers left over from a previous open are still holding the worker slots.
+                waitForWorkers();
+            }
+            while (chunk.error == null && chunk.filled == readOffset) {
+                waitForWorkers();
+            }
+            if (chunk.error != null) {
+                throw chunk.error;
+            }
+            int read = Math.min(readLength, chunk.filled - readOffset);
+            System.arraycopy(chunk.data, readOffset, buffer, offset, read);
+            readOffset += read;
+            if (readOffset == chunk.length) {
+                chunks.pollFirst();
+                readOffset = 0;
+                scheduleChunks();
+            }
+            return read;
+        }
+    }
+
+    @Override
+    public Uri getUri() {
+        return dataSpec != null ? dataSpec.uri : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            for (Chunk chunk : chunks) {
+                if (chunk.future != null) {
+                    chunk.future.cancel(true);
+                }
+            }
+            chunks.clear();
+            notifyAll();
+        }
+        dataSpec = null;
+        if (initialSource != null) {
+            HttpDataSource source = initialSource;
+            initialSource = null;
+            source.close();
+        }
+    }
+
+    private void waitForWorkers() throws IOException {
+        if (closed) {
+            throw new IOException("Data source closed");
+        }
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Starts workers for the chunks after the last scheduled one, while there are free workers and
+     * room in the reorder buffer.
+     */
+    private void scheduleChunks() {
+        int parallelism = controller.getParallelism();
+        while (!closed && activeWorkers < parallelism && chunks.size() < maxBufferedChunks
+                && nextChunkPosition < endPosition) {
+            final Chunk chunk = new Chunk(nextChunkPosition,
+                    (int) Math.min(chunkSize, endPosition - nextChunkPosition));
+            nextChunkPosition += chunk.length;
+            chunks.addLast(chunk);
+            activeWorkers++;
+            final DataSpec spec = dataSpec;
+            final int chunkGeneration = generation;
+            chunk.future = EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    fetch(chunk, spec, chunkGeneration);
+                }
+            });
+        }
+    }
+
+    private void fetch(Chunk chunk, DataSpec spec, int chunkGeneration) {
+        long startTimeMs = SystemClock.elapsedRealtime();
+        HttpDataSource source = upstreamFactory.createDataSource();
+        IOException error = null;
+        try {
+            source.open(new DataSpec(spec.uri, chunk.position, chunk.length, spec.key, spec.flags));
+            int filled = 0;
+            while (filled < chunk.length) {
+                int read = source.read(chunk.data, filled, chunk.length - filled);
+                if (read == C.RESULT_END_OF_INPUT) {
+                    throw new IOException("Range response ended early at " + (chunk.position + filled));
+                }
+                filled += read;
+                synchronized (this) {
+                    if (closed || chunkGeneration != generation) {
+                        return;
+                    }
+                    chunk.filled = filled;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // Ignore, the chunk is either complete or failed already.
+            }
+            synchronized (this) {
+                activeWorkers--;
+                if (error != null && !closed && chunkGeneration == generation) {
+                    Log.w(TAG, "Chunk at " + chunk.position + " failed", error);
+                    chunk.error = error;
+                }
+                scheduleChunks();
+                notifyAll();
+            }
+        }
+        if (error == null) {
+            controller.onChunkLoaded(chunk.length, SystemClock.elapsedRealtime() - startTimeMs);
+        }
+    }
+
+    private static long getResourceLength(Map<String, List<String>> headers) {
+        if (headers == null) {
+            return C.LENGTH_UNSET;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if ("Content-Range".equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                Matcher matcher = CONTENT_RANGE_PATTERN.matcher(header.getValue().get(0).trim());
+                return matcher.matches() ? Long.parseLong(matcher.group(1)) : C.LENGTH_UNSET;
+            }
+        }
+        return C.LENGTH_UNSET;
+    }
+
+    private static final class Chunk {
+
+        private final long position;
+        private final int length;
+        private final byte[] data;
+        private int filled;
+        private IOException error;
+        private Future<?> future;
+
+        private Chunk(long position, int length) {
+            this.position = position;
+            this.length = length;
+            data = new byte[length];
+        }
+    }
+
+    /**
+     * Hill-climbs the number of workers on the aggregate throughput. Each sample period estimates
+     * it as the mean per-connection rate times the number of connections, and the controller keeps
+     * stepping in the same direction while that improves by more than 10%. Otherwise it turns
+     * round, so it settles next to the best value and follows changes of the network.
+     */
+    private static final class ParallelismController {
+
+        private static final int MIN_SAMPLES = 4;
+
+        private final int maxParallelism;
+
+        private int parallelism;
+        private int direction;
+        private long sampleBytes;
+        private long sampleDurationMs;
+        private int sampleCount;
+        private long lastThroughput;
+
+        private ParallelismController(int maxParallelism) {
+            this.maxParallelism = maxParallelism;
+            parallelism = Math.min(2, maxParallelism);
+            direction = 1;
+        }
+
+        private synchronized int getParallelism() {
+            return parallelism;
+        }
+
+        private synchronized void onChunkLoaded(long bytes, long durationMs) {
+            sampleBytes += bytes;
+            sampleDurationMs += Math.max(1, durationMs);
+            if (++sampleCount < Math.max(MIN_SAMPLES, parallelism * 2)) {
+                return;
+            }
+            long throughput = sampleBytes * 1000 / sampleDurationMs * parallelism;
+            if (lastThroughput != 0 && throughput <= lastThroughput * 11 / 10) {
+                direction = -direction;
+            }
+            int next = Math.max(1, Math.min(maxParallelism, parallelism + direction));
+            if (next == parallelism) {
+                direction = -direction;
+            }
+            parallelism = next;
+            Log.d(TAG, "Throughput " + throughput + " B/s, parallelism " + parallelism);
+            lastThroughput = throughput;
+            sampleBytes = 0;
+            sampleDurationMs = 0;
+            sampleCount = 0;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.noriginmedia.exoplayer;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One clock that samples the position, duration and buffered percentage of every registered
+ * {@link VideoPlayer}, so a screen with several players runs one timer instead of one per player.
+ * <p>
+ * The clock ticks on the first {@link Choreographer} frame after each interval, samples all
+ * players in that one pass and calls a {@link Listener} only when one of its player's values has
+ * changed. It stops when no players are registered.
+ * <p>
+ * Must be used on the main thread.
+ */
+public final class PlaybackClock implements Choreographer.FrameCallback {
+
+    public static final long DEFAULT_INTERVAL_MS = 250;
+
+    public interface Listener {
+
+        /**
+         * Called on a tick of the clock when any of the values differs from the last call.
+         */
+        void onPlaybackProgress(long positionMs, long durationMs, long bufferedPercentage);
+    }
+
+    private static PlaybackClock instance;
+
+    private final Choreographer choreographer;
+    private final List<Subscription> subscriptions;
+
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private long lastTickMs;
+    private boolean frameScheduled;
+
+    public static PlaybackClock getInstance() {
+        if (instance == null) {
+            instance = new PlaybackClock();
+        }
+        return instance;
+    }
+
+    private PlaybackClock() {
+        choreographer = Choreographer.getInstance();
+        subscriptions = new ArrayList<>();
+    }
+
+    /**
+     * Sets how often the players are sampled, from the next tick.
+     */
+    public void setInterval(long intervalMs) {
+        this.intervalMs = Math.max(0, intervalMs);
+    }
+
+    /**
+     * Samples {@code videoPlayer} for {@code listener} from the next tick on, replacing the player
+     * the listener was registered with. The first sample is always passed on.
+     */
+    public void register(VideoPlayer videoPlayer, Listener listener) {
+        unregister(listener);
+        subscriptions.add(new Subscription(videoPlayer, listener));
+        if (!frameScheduled) {
+            frameScheduled = true;
+            choreographer.postFrameCallbackDelayed(this,
+                    Math.max(0, lastTickMs + intervalMs - SystemClock.uptimeMillis()));
+        }
+    }
+
+    public void unregister(Listener listener) {
+        for (int i = 0; i < subscriptions.size(); i++) {
+            if (subscriptions.get(i).listener == listener) {
+                subscriptions.remove(i);
+                break;
+            }
+        }
+        if (subscriptions.isEmpty() && frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        lastTickMs = SystemClock.uptimeMillis();
+        // Listeners may unregister while being called.
+        for (Subscription subscription : new ArrayList<>(subscriptions)) {
+            subscription.sample();
+        }
+        if (!subscriptions.isEmpty() && !frameScheduled) {
+            frameScheduled = true;
+            choreographer.postFrameCallbackDelayed(this, intervalMs);
+        }
+    }
+
+    private static final class Subscription {
+
+        private final VideoPlayer videoPlayer;
+        private final Listener listener;
+        private boolean sampled;
+        private long positionMs;
+        private long durationMs;
+        private long bufferedPercentage;
+
+        private Subscription(VideoPlayer videoPlayer, Listener listener) {
+            this.videoPlayer = videoPlayer;
+            this.listener = listener;
+        }
+
+        private void sample() {
+            if (!videoPlayer.isPlayerReady()) {
+                return;
+            }
+            long positionMs = videoPlayer.getCurrentPosition();
+            long durationMs = videoPlayer.getDuration();
+            long bufferedPercentage = videoPlayer.getBufferedPercentage();
+            if (sampled && positionMs == this.positionMs && durationMs == this.durationMs
+                    && bufferedPercentage == this.bufferedPercentage) {
+                return;
+            }
+            sampled = true;
+            this.positionMs = positionMs;
+            this.durationMs = durationMs;
+            this.bufferedPercentage = bufferedPercentage;
+            listener.onPlaybackProgress(positionMs, durationMs, bufferedPercentage);
+        }
+    }
+}
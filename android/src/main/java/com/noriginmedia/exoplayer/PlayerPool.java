@@ -0,0 +1,239 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A bounded pool of pre-created {@link SimpleExoPlayer} instances.
+ * <p>
+ * Players are checked out with {@link #acquire(BufferingProfile, TrackSelection.Factory)} and
+ * handed back with {@link #release(PooledPlayer)}, which resets them so the next user starts from a
+ * clean state. Players that stay idle for longer than the idle timeout are released. Only players
+ * without DRM are pooled, since the {@link com.google.android.exoplayer2.drm.DrmSessionManager} is
+ * fixed at construction time. For the same reason a player is only handed to users asking for the
+ * {@link BufferingProfile} it was built with.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class PlayerPool {
+
+    private static final String TAG = PlayerPool.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_SIZE = 2;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+
+    private static PlayerPool instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final ArrayDeque<PooledPlayer> idlePlayers;
+
+    private int maxSize;
+    private int pressureLimit = Integer.MAX_VALUE;
+    private long idleTimeoutMs;
+
+    private final Runnable evictIdleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evictIdlePlayers();
+        }
+    };
+
+    public static PlayerPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new PlayerPool(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PlayerPool(Context context) {
+        this.context = context;
+        handler = new Handler(Looper.getMainLooper());
+        idlePlayers = new ArrayDeque<>();
+        maxSize = DEFAULT_MAX_SIZE;
+        idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    }
+
+    /**
+     * @param maxSize       The maximum number of idle players kept in the pool.
+     * @param idleTimeoutMs How long an idle player is kept before it is released.
+     */
+    public void configure(int maxSize, long idleTimeoutMs) {
+        this.maxSize = Math.max(0, maxSize);
+        this.idleTimeoutMs = Math.max(0, idleTimeoutMs);
+        trim();
+    }
+
+    /**
+     * Lowers the number of idle players kept below the configured size while memory is short, or
+     * lifts the limit with {@link Integer#MAX_VALUE}.
+     */
+    public void setPressureLimit(int limit) {
+        pressureLimit = Math.max(0, limit);
+        trim();
+    }
+
+    private int getEffectiveMaxSize() {
+        return Math.min(maxSize, pressureLimit);
+    }
+
+    private void trim() {
+        while (idlePlayers.size() > getEffectiveMaxSize()) {
+            idlePlayers.pollLast().release();
+        }
+        scheduleEviction();
+    }
+
+    /**
+     * Creates idle players up to {@code count}, bounded by the pool size, so later checkouts skip
+     * the construction cost.
+     */
+    public void prewarm(int count) {
+        int target = Math.min(count, getEffectiveMaxSize());
+        while (idlePlayers.size() < target) {
+            idlePlayers.addFirst(create(BufferingProfile.DEFAULT, null));
+        }
+        scheduleEviction();
+    }
+
+    /**
+     * Returns an idle player built with {@code bufferingProfile}, or a newly created one if the
+     * pool has none.
+     *
+     * @param bufferingProfile           The buffering profile of the player's load control.
+     * @param videoTrackSelectionFactory The adaptive video track selection factory the player's
+     *                                   track selector should use while checked out.
+     */
+    public PooledPlayer acquire(BufferingProfile bufferingProfile,
+                                TrackSelection.Factory videoTrackSelectionFactory) {
+        Iterator<PooledPlayer> iterator = idlePlayers.iterator();
+        while (iterator.hasNext()) {
+            PooledPlayer pooledPlayer = iterator.next();
+            if (pooledPlayer.bufferingProfile.equals(bufferingProfile)) {
+                iterator.remove();
+                Log.d(TAG, "Reusing pooled player, " + idlePlayers.size() + " left");
+                pooledPlayer.videoTrackSelectionFactory.setDelegate(videoTrackSelectionFactory);
+                return pooledPlayer;
+            }
+        }
+        return create(bufferingProfile, videoTrackSelectionFactory);
+    }
+
+    /**
+     * Resets the player and returns it to the pool, or releases it if the pool is full. The caller
+     * must have removed its own listeners and must not use the player afterwards.
+     */
+    public void release(PooledPlayer pooledPlayer) {
+        if (idlePlayers.size() >= getEffectiveMaxSize() || idleTimeoutMs == 0) {
+            pooledPlayer.release();
+            return;
+        }
+        pooledPlayer.reset();
+        idlePlayers.addFirst(pooledPlayer);
+        scheduleEviction();
+    }
+
+    /**
+     * Releases all idle players.
+     */
+    public void clear() {
+        handler.removeCallbacks(evictIdleRunnable);
+        while (!idlePlayers.isEmpty()) {
+            idlePlayers.pollFirst().release();
+        }
+    }
+
+    public int getIdleCount() {
+        return idlePlayers.size();
+    }
+
+    private PooledPlayer create(BufferingProfile bufferingProfile,
+                                TrackSelection.Factory videoTrackSelectionFactory) {
+        SwitchableTrackSelectionFactory switchableFactory =
+                new SwitchableTrackSelectionFactory(videoTrackSelectionFactory);
+        DefaultTrackSelector trackSelector = new DecoderCapabilityTrackSelector(
+                DecoderCapabilities.getInstance(context), switchableFactory);
+        CappedLoadControl loadControl = bufferingProfile.createLoadControl();
+        SimpleExoPlayer player = ExoPlayerFactory.newSimpleInstance(context, trackSelector,
+                loadControl, null, SimpleExoPlayer.EXTENSION_RENDERER_MODE_OFF);
+        player.setPlayWhenReady(false);
+        return new PooledPlayer(player, trackSelector, loadControl, bufferingProfile, switchableFactory);
+    }
+
+    private void scheduleEviction() {
+        handler.removeCallbacks(evictIdleRunnable);
+        if (!idlePlayers.isEmpty()) {
+            handler.postDelayed(evictIdleRunnable, idleTimeoutMs);
+        }
+    }
+
+    private void evictIdlePlayers() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<PooledPlayer> iterator = idlePlayers.iterator();
+        while (iterator.hasNext()) {
+            PooledPlayer pooledPlayer = iterator.next();
+            if (now - pooledPlayer.idleSinceMs >= idleTimeoutMs) {
+                iterator.remove();
+                pooledPlayer.release();
+            }
+        }
+        scheduleEviction();
+    }
+
+    public static final class PooledPlayer {
+
+        public final SimpleExoPlayer player;
+        public final DefaultTrackSelector trackSelector;
+        public final CappedLoadControl loadControl;
+        public final BufferingProfile bufferingProfile;
+
+        private final SwitchableTrackSelectionFactory videoTrackSelectionFactory;
+        private long idleSinceMs;
+
+        private PooledPlayer(SimpleExoPlayer player, DefaultTrackSelector trackSelector,
+                             CappedLoadControl loadControl, BufferingProfile bufferingProfile,
+                             SwitchableTrackSelectionFactory videoTrackSelectionFactory) {
+            this.player = player;
+            this.trackSelector = trackSelector;
+            this.loadControl = loadControl;
+            this.bufferingProfile = bufferingProfile;
+            this.videoTrackSelectionFactory = videoTrackSelectionFactory;
+            idleSinceMs = SystemClock.elapsedRealtime();
+        }
+
+        private void reset() {
+            player.stop();
+            player.setPlayWhenReady(false);
+            player.setVolume(1f);
+            player.setVideoListener(null);
+            player.setTextOutput(null);
+            player.setMetadataOutput(null);
+            player.setAudioDebugListener(null);
+            player.setVideoDebugListener(null);
+            player.setVideoSurface(null);
+            loadControl.clearCap();
+            trackSelector.clearSelectionOverrides();
+            trackSelector.setParameters(new DefaultTrackSelector.Parameters());
+            for (int i = 0; i < player.getRendererCount(); i++) {
+                trackSelector.setRendererDisabled(i, false);
+            }
+            videoTrackSelectionFactory.setDelegate(null);
+            idleSinceMs = SystemClock.elapsedRealtime();
+        }
+
+        private void release() {
+            player.release();
+        }
+    }
+}
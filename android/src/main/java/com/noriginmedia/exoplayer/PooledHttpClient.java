@@ -0,0 +1,292 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.CookieHandler;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.Dns;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.JavaNetCookieJar;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Process-wide HTTP stack on top of a single {@link OkHttpClient}, so that all players share one
+ * pool of keep-alive connections instead of paying a TCP and TLS handshake for each segment.
+ * <p>
+ * On top of the connection pool it caps the number of requests per host that are connecting or
+ * waiting for response headers, caches DNS results, serving a stale result if a later lookup
+ * fails, and can open a connection to a host ahead of the first request with
+ * {@link #preconnect(Uri, String)}. Cookies go through the default
+ * {@link CookieHandler}, as with {@link DefaultHttpDataSource}.
+ */
+public class PooledHttpClient implements HttpDataSourceFactoryProvider, Call.Factory {
+
+    private static final String TAG = PooledHttpClient.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+    public static final long DEFAULT_KEEP_ALIVE_MS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    public static final long DEFAULT_DNS_TTL_MS = 60 * 1000;
+
+    /**
+     * How long an expired DNS result is kept to fall back on when a lookup fails.
+     */
+    private static final long DNS_STALE_MS = 10 * 60 * 1000;
+
+    /**
+     * Tags preconnect requests, which are not counted against the cap of their host.
+     */
+    private static final Object PRECONNECT_TAG = new Object();
+
+    private static PooledHttpClient instance;
+
+    private final Map<String, Integer> hostRequests;
+    private final Map<String, DnsEntry> dnsEntries;
+
+    private volatile OkHttpClient client;
+    private int maxConnectionsPerHost;
+    private long dnsTtlMs;
+
+    public static synchronized PooledHttpClient getInstance() {
+        if (instance == null) {
+            instance = new PooledHttpClient();
+        }
+        return instance;
+    }
+
+    private PooledHttpClient() {
+        hostRequests = new HashMap<>();
+        dnsEntries = new HashMap<>();
+        maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        dnsTtlMs = DEFAULT_DNS_TTL_MS;
+        client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_MS,
+                        TimeUnit.MILLISECONDS))
+                .connectTimeout(DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .dns(new CachingDns())
+                .cookieJar(new DefaultCookieJar())
+                .addInterceptor(new HostLimitInterceptor())
+                .build();
+    }
+
+    /**
+     * @param maxIdleConnections    The number of idle connections kept alive across all hosts.
+     * @param keepAliveMs           How long an idle connection is kept alive.
+     * @param maxConnectionsPerHost The number of requests to one host that may be connecting or
+     *                              waiting for response headers at the same time.
+     * @param dnsTtlMs              How long a DNS result is reused.
+     */
+    public synchronized void configure(int maxIdleConnections, long keepAliveMs,
+                                       int maxConnectionsPerHost, long dnsTtlMs) {
+        client.connectionPool().evictAll();
+        client = client.newBuilder()
+                .connectionPool(new ConnectionPool(Math.max(0, maxIdleConnections), Math.max(0, keepAliveMs),
+                        TimeUnit.MILLISECONDS))
+                .build();
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+        this.dnsTtlMs = Math.max(0, dnsTtlMs);
+        // Requests in flight keep counting against the new cap, waiting ones re-check it.
+        notifyAll();
+        dnsEntries.clear();
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        return client.newCall(request);
+    }
+
+    @Override
+    public HttpDataSource.Factory createFactory(String userAgent, TransferListener<? super DataSource> listener) {
+        // Calls go through this instance, so factories pick up a reconfigured client.
+        return new OkHttpDataSourceFactory(this, userAgent, listener);
+    }
+
+    /**
+     * Resolves the host of {@code uri} and opens a connection to it in the background, leaving it
+     * in the pool for the requests that follow.
+     * <p>
+     * The connection is opened with a HEAD request to the root of the host, so the path and query
+     * of {@code uri}, which may hold single-use tokens, are never requested. It does not count
+     * against the per-host request cap and redirects are not followed.
+     */
+    @Override
+    public void preconnect(final Uri uri, String userAgent) {
+        HttpUrl url = HttpUrl.parse(uri.toString());
+        if (url == null) {
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(new HttpUrl.Builder().scheme(url.scheme()).host(url.host()).port(url.port()).build())
+                .head()
+                .header("User-Agent", userAgent)
+                .tag(PRECONNECT_TAG)
+                .build();
+        OkHttpClient preconnectClient = client.newBuilder()
+                .followRedirects(false)
+                .followSslRedirects(false)
+                .build();
+        preconnectClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.d(TAG, "Preconnect failed for " + uri.getHost(), e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Waits up to {@code timeoutMs} until fewer than the maximum number of requests to
+     * {@code host} are setting up, then counts one more.
+     */
+    private synchronized void acquireHostSlot(String host, long timeoutMs) throws IOException {
+        long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+        Integer requests = hostRequests.get(host);
+        while (requests != null && requests >= maxConnectionsPerHost) {
+            long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+            if (remainingMs <= 0) {
+                throw new IOException("Timed out waiting for a connection to " + host);
+            }
+            try {
+                wait(remainingMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            requests = hostRequests.get(host);
+        }
+        hostRequests.put(host, requests == null ? 1 : requests + 1);
+    }
+
+    private synchronized void releaseHostSlot(String host) {
+        Integer requests = hostRequests.get(host);
+        if (requests == null || requests <= 1) {
+            hostRequests.remove(host);
+        } else {
+            hostRequests.put(host, requests - 1);
+        }
+        notifyAll();
+    }
+
+    private synchronized DnsEntry getDnsEntry(String hostname) {
+        return dnsEntries.get(hostname);
+    }
+
+    private synchronized void putDnsEntry(String hostname, List<InetAddress> addresses) {
+        long nowMs = SystemClock.elapsedRealtime();
+        // Results too old to fall back on are dropped, so hosts seen once do not pile up.
+        Iterator<DnsEntry> iterator = dnsEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAtMs + DNS_STALE_MS < nowMs) {
+                iterator.remove();
+            }
+        }
+        dnsEntries.put(hostname, new DnsEntry(addresses, nowMs + dnsTtlMs));
+    }
+
+    /**
+     * Counts a request against the cap of its host while it connects and waits for the response
+     * headers. The body is not counted, since a loader whose buffer is full may keep it open for
+     * as long as the stream plays. A request that cannot start within the connect timeout fails.
+     */
+    private final class HostLimitInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            if (chain.request().tag() == PRECONNECT_TAG) {
+                return chain.proceed(chain.request());
+            }
+            String host = chain.request().url().host();
+            acquireHostSlot(host, client.connectTimeoutMillis());
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                releaseHostSlot(host);
+            }
+        }
+    }
+
+    private final class CachingDns implements Dns {
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            DnsEntry entry = getDnsEntry(hostname);
+            if (entry != null && entry.expiresAtMs > SystemClock.elapsedRealtime()) {
+                return entry.addresses;
+            }
+            try {
+                List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+                putDnsEntry(hostname, addresses);
+                return addresses;
+            } catch (UnknownHostException e) {
+                if (entry != null) {
+                    Log.w(TAG, "DNS lookup failed for " + hostname + ", using stale result");
+                    return entry.addresses;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static final class DnsEntry {
+
+        private final List<InetAddress> addresses;
+        private final long expiresAtMs;
+
+        private DnsEntry(List<InetAddress> addresses, long expiresAtMs) {
+            this.addresses = addresses;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    /**
+     * Stores cookies in whatever {@link CookieHandler} is the default at the time of the request.
+     */
+    private static final class DefaultCookieJar implements CookieJar {
+
+        @Override
+        public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+            CookieHandler cookieHandler = CookieHandler.getDefault();
+            if (cookieHandler != null) {
+                new JavaNetCookieJar(cookieHandler).saveFromResponse(url, cookies);
+            }
+        }
+
+        @Override
+        public List<Cookie> loadForRequest(HttpUrl url) {
+            CookieHandler cookieHandler = CookieHandler.getDefault();
+            return cookieHandler != null ? new JavaNetCookieJar(cookieHandler).loadForRequest(url)
+                    : Collections.<Cookie>emptyList();
+        }
+    }
+}
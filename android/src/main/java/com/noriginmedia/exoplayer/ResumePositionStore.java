@@ -0,0 +1,354 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers where playback of each stream stopped, so it can resume there.
+ * <p>
+ * Positions are held in memory for lookups and written to an append-only log on a background
+ * thread, batched over {@link #FLUSH_DELAY_MS}. Each record is appended whole and synced, and a
+ * record cut short by a crash is dropped when the log is read back, so a crash loses at most the
+ * last batch. The log is rewritten with only the latest position of each stream once it has grown
+ * to twice that size, dropping the least recently saved streams beyond {@link #MAX_ENTRIES}.
+ * <p>
+ * Lookups and saves must be made on the main thread.
+ */
+public class ResumePositionStore {
+
+    private static final String TAG = ResumePositionStore.class.getSimpleName();
+
+    private static final String LOG_FILE_NAME = "nm_resume_positions.log";
+    private static final long FLUSH_DELAY_MS = 5000;
+    private static final int MIN_RECORDS_TO_COMPACT = 256;
+
+    public static final int MAX_ENTRIES = 1000;
+
+    public interface Callback {
+
+        /**
+         * Called on the main thread with the saved position, or {@link C#TIME_UNSET} if there is
+         * none.
+         */
+        void onPositionLoaded(String key, long positionMs);
+    }
+
+    private static ResumePositionStore instance;
+
+    private final File logFile;
+    private final Handler mainHandler;
+    private final Handler handler;
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> pendingEntries;
+    private final List<Runnable> pendingLookups;
+
+    private boolean loaded;
+    private boolean flushScheduled;
+    private int recordCount;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    public static synchronized ResumePositionStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ResumePositionStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ResumePositionStore(Context context) {
+        logFile = new File(context.getFilesDir(), LOG_FILE_NAME);
+        mainHandler = new Handler(Looper.getMainLooper());
+        entries = new HashMap<>();
+        pendingEntries = new LinkedHashMap<>();
+        pendingLookups = new ArrayList<>();
+        HandlerThread thread = new HandlerThread("ResumePositionStore");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Passes the saved position of {@code key} to {@code callback}, straight away if the log has
+     * been read, otherwise once it has.
+     */
+    public void lookup(final String key, final Callback callback) {
+        Runnable lookup = new Runnable() {
+            @Override
+            public void run() {
+                callback.onPositionLoaded(key, getPosition(key));
+            }
+        };
+        synchronized (this) {
+            if (!loaded) {
+                pendingLookups.add(lookup);
+                return;
+            }
+        }
+        lookup.run();
+    }
+
+    private synchronized long getPosition(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.positionMs : C.TIME_UNSET;
+    }
+
+    /**
+     * Saves {@code positionMs} for {@code key}, or forgets it if it is {@link C#TIME_UNSET}.
+     */
+    public synchronized void save(String key, long positionMs) {
+        Entry current = entries.get(key);
+        if (loaded && (current == null ? positionMs == C.TIME_UNSET : current.positionMs == positionMs)) {
+            return;
+        }
+        Entry entry = new Entry(key, positionMs, System.currentTimeMillis());
+        if (positionMs == C.TIME_UNSET) {
+            entries.remove(key);
+        } else {
+            entries.put(key, entry);
+        }
+        pendingEntries.put(key, entry);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    public void remove(String key) {
+        save(key, C.TIME_UNSET);
+    }
+
+    /**
+     * Writes the pending positions without waiting for the rest of the batch.
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        handler.post(flushRunnable);
+    }
+
+    private void load() {
+        Map<String, Entry> logged = new HashMap<>();
+        int records = 0;
+        boolean truncated = false;
+        byte[] data = readLog();
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream input = new DataInputStream(bytes);
+        try {
+            while (bytes.available() > 0) {
+                Entry entry = new Entry(input.readUTF(), input.readLong(), input.readLong());
+                records++;
+                if (entry.positionMs == C.TIME_UNSET) {
+                    logged.remove(entry.key);
+                } else {
+                    logged.put(entry.key, entry);
+                }
+            }
+        } catch (IOException e) {
+            // A record cut short by a crash.
+            Log.w(TAG, "Dropping partial record at the end of " + logFile);
+            truncated = true;
+        }
+        List<Runnable> lookups;
+        boolean hasPending;
+        synchronized (this) {
+            for (Entry entry : logged.values()) {
+                // Positions saved before the log was read are newer.
+                if (!pendingEntries.containsKey(entry.key)) {
+                    entries.put(entry.key, entry);
+                }
+            }
+            recordCount = records;
+            loaded = true;
+            lookups = new ArrayList<>(pendingLookups);
+            pendingLookups.clear();
+            hasPending = !pendingEntries.isEmpty();
+        }
+        for (Runnable lookup : lookups) {
+            mainHandler.post(lookup);
+        }
+        if (truncated) {
+            // Appending after a partial record would make the records that follow unreadable.
+            compact();
+        }
+        if (hasPending) {
+            writePending();
+        }
+    }
+
+    private byte[] readLog() {
+        if (!logFile.exists()) {
+            return new byte[0];
+        }
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(logFile);
+            byte[] data = new byte[(int) logFile.length()];
+            int length = 0;
+            while (length < data.length) {
+                int read = input.read(data, length, data.length - length);
+                if (read == -1) {
+                    break;
+                }
+                length += read;
+            }
+            return length == data.length ? data : Arrays.copyOf(data, length);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + logFile, e);
+            return new byte[0];
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private void writePending() {
+        List<Entry> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pendingEntries.isEmpty() || !loaded) {
+                return;
+            }
+            batch = new ArrayList<>(pendingEntries.values());
+            pendingEntries.clear();
+        }
+        try {
+            write(logFile, batch, true);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append to " + logFile, e);
+        }
+        int liveEntries;
+        synchronized (this) {
+            recordCount += batch.size();
+            liveEntries = entries.size();
+        }
+        if (recordCount >= Math.max(MIN_RECORDS_TO_COMPACT, 2 * liveEntries)) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the log with the latest position of each stream, replacing the old one atomically.
+     */
+    private void compact() {
+        List<Entry> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries.values());
+            snapshot.addAll(pendingEntries.values());
+            pendingEntries.clear();
+        }
+        Collections.sort(snapshot, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.savedAtMs < rhs.savedAtMs ? 1 : lhs.savedAtMs > rhs.savedAtMs ? -1 : 0;
+            }
+        });
+        Map<String, Entry> latest = new LinkedHashMap<>();
+        for (Entry entry : snapshot) {
+            if (!latest.containsKey(entry.key)) {
+                latest.put(entry.key, entry);
+            }
+        }
+        List<Entry> kept = new ArrayList<>();
+        List<Entry> evicted = new ArrayList<>();
+        for (Entry entry : latest.values()) {
+            if (entry.positionMs == C.TIME_UNSET) {
+                continue;
+            }
+            if (kept.size() < MAX_ENTRIES) {
+                kept.add(entry);
+            } else {
+                evicted.add(entry);
+            }
+        }
+        File tempFile = new File(logFile.getPath() + ".tmp");
+        try {
+            write(tempFile, kept, false);
+            if (!tempFile.renameTo(logFile)) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to compact " + logFile, e);
+            tempFile.delete();
+            return;
+        }
+        synchronized (this) {
+            recordCount = kept.size();
+            for (Entry entry : evicted) {
+                // Unless it was saved again meanwhile.
+                if (entries.get(entry.key) == entry) {
+                    entries.remove(entry.key);
+                }
+            }
+        }
+    }
+
+    private static void write(File file, List<Entry> records, boolean append) throws IOException {
+        FileOutputStream fileOutput = new FileOutputStream(file, append);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+        try {
+            for (Entry entry : records) {
+                output.writeUTF(entry.key);
+                output.writeLong(entry.positionMs);
+                output.writeLong(entry.savedAtMs);
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final String key;
+        private final long positionMs;
+        private final long savedAtMs;
+
+        private Entry(String key, long positionMs, long savedAtMs) {
+            this.key = key;
+            this.positionMs = positionMs;
+            this.savedAtMs = savedAtMs;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Coalesces the seeks of a scrubbing gesture so the player does not cancel and restart its loads
+ * for every update.
+ * <p>
+ * While scrubbing, positions are snapped down to a grid of {@link #setSnapInterval snap interval},
+ * which by default matches the usual keyframe and segment spacing, and at most one seek is made
+ * per {@link #DEFAULT_MIN_SEEK_INTERVAL_MS}. Updates that snap to the position already sought are
+ * dropped, and a burst of updates ends with a seek to the latest one. The final seek of a gesture
+ * goes to the exact position. Final seeks are rate limited the same way, so a burst of them, such
+ * as repeated taps on a skip button, only seeks to the first and then the latest one. ExoPlayer r2.2 has no seek mode for keyframes, so snapping is what
+ * keeps intermediate seeks on positions that decode quickly and stay within loaded segments.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class SeekScheduler {
+
+    public static final long DEFAULT_SNAP_INTERVAL_MS = 2000;
+    public static final long DEFAULT_MIN_SEEK_INTERVAL_MS = 250;
+
+    private final Handler handler;
+
+    private ExoPlayer player;
+    private long snapIntervalMs = DEFAULT_SNAP_INTERVAL_MS;
+    private long lastSeekPositionMs = C.TIME_UNSET;
+    private long lastSeekTimeMs;
+    private long pendingPositionMs = C.TIME_UNSET;
+    private boolean pendingIsFinal;
+
+    private final Runnable seekRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (player != null && pendingPositionMs != C.TIME_UNSET) {
+                seekNow();
+            }
+        }
+    };
+
+    public SeekScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    public void setPlayer(ExoPlayer player) {
+        cancel();
+        this.player = player;
+    }
+
+    /**
+     * Sets the grid that intermediate seeks are snapped to, or 0 to leave them exact.
+     */
+    public void setSnapInterval(long snapIntervalMs) {
+        this.snapIntervalMs = Math.max(0, snapIntervalMs);
+    }
+
+    /**
+     * @param positionMs The position to seek to.
+     * @param isFinal    Whether this is the last seek of a gesture, which goes to the exact
+     *                   position. It replaces any seek still waiting to be made.
+     */
+    public void seekTo(long positionMs, boolean isFinal) {
+        if (player == null) {
+            return;
+        }
+        positionMs = Math.max(0, positionMs);
+        if (!isFinal) {
+            if (snapIntervalMs > 0) {
+                positionMs -= positionMs % snapIntervalMs;
+            }
+            if (positionMs == lastSeekPositionMs || (positionMs == pendingPositionMs && !pendingIsFinal)) {
+                return;
+            }
+        }
+        pendingPositionMs = positionMs;
+        pendingIsFinal = isFinal;
+        long waitMs = lastSeekTimeMs + DEFAULT_MIN_SEEK_INTERVAL_MS - SystemClock.elapsedRealtime();
+        handler.removeCallbacks(seekRunnable);
+        if (waitMs <= 0) {
+            seekNow();
+        } else {
+            handler.postDelayed(seekRunnable, waitMs);
+        }
+    }
+
+    /**
+     * Returns the position of the seek that is waiting to be made, or {@link C#TIME_UNSET}.
+     */
+    public long getPendingPosition() {
+        return pendingPositionMs;
+    }
+
+    /**
+     * Drops the seek that is waiting to be made.
+     */
+    public void cancel() {
+        handler.removeCallbacks(seekRunnable);
+        pendingPositionMs = C.TIME_UNSET;
+        lastSeekPositionMs = C.TIME_UNSET;
+    }
+
+    private void seekNow() {
+        long positionMs = pendingPositionMs;
+        pendingPositionMs = C.TIME_UNSET;
+        // The next gesture starts afresh after a final seek.
+        lastSeekPositionMs = pendingIsFinal ? C.TIME_UNSET : positionMs;
+        lastSeekTimeMs = SystemClock.elapsedRealtime();
+        player.seekTo(positionMs);
+    }
+}
@@ -0,0 +1,424 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
+import com.google.android.exoplayer2.drm.DrmInitData;
+import com.google.android.exoplayer2.drm.DrmSession;
+import com.google.android.exoplayer2.drm.DrmSessionManager;
+import com.google.android.exoplayer2.drm.ExoMediaDrm;
+import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
+import com.google.android.exoplayer2.drm.HttpMediaDrmCallback;
+import com.google.android.exoplayer2.drm.UnsupportedDrmException;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import android.content.Context;
+import android.media.DeniedByServerException;
+import android.media.MediaCryptoException;
+import android.media.NotProvisionedException;
+import android.media.ResourceBusyException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Process-wide pool of open DRM sessions shared by all players.
+ * <p>
+ * Sessions are keyed by key system, license server and the key IDs in the stream's PSSH, so
+ * channels that share keys share a session even if their PSSH boxes differ otherwise. They are
+ * reference counted across players and across prepares of the same player. A session whose last
+ * user has gone is kept open for {@link #DEFAULT_IDLE_TIMEOUT_MS} so that switching back to a
+ * stream with the same keys needs neither provisioning nor a new session. Once more than
+ * {@link #DEFAULT_MAX_OPEN_SESSIONS} sessions are open, idle ones are closed in least recently
+ * used order. Sessions in use are never closed, so the limit does not bound how many players may
+ * play protected streams at once.
+ * <p>
+ * All sessions of a key system and license server are opened on one {@link FrameworkMediaDrm},
+ * which is released with its last session. Its events are passed to the session they belong to.
+ * <p>
+ * Each session runs on a looper owned by this class rather than on the playback thread of the
+ * player that opened it, since that thread goes away when the player is released.
+ */
+public class SharedDrmSessionManager {
+
+    private static final String TAG = SharedDrmSessionManager.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_OPEN_SESSIONS = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    private static SharedDrmSessionManager instance;
+
+    private final Context context;
+    private final Looper sessionLooper;
+    private final Handler handler;
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, SharedMediaDrm> mediaDrms;
+
+    private int maxOpenSessions;
+    private long idleTimeoutMs;
+
+    private final Runnable evictIdleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evictIdleSessions(0);
+        }
+    };
+
+    public static synchronized SharedDrmSessionManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new SharedDrmSessionManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SharedDrmSessionManager(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread("SharedDrmSessionManager");
+        thread.start();
+        sessionLooper = thread.getLooper();
+        handler = new Handler(sessionLooper);
+        entries = new LinkedHashMap<>(8, 0.75f, true);
+        mediaDrms = new HashMap<>();
+        maxOpenSessions = DEFAULT_MAX_OPEN_SESSIONS;
+        idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    }
+
+    /**
+     * @param maxOpenSessions The number of sessions above which idle ones are closed. Sessions in
+     *                        use count towards it but are never closed.
+     * @param idleTimeoutMs   How long a session is kept open once it is no longer used.
+     */
+    public synchronized void configure(int maxOpenSessions, long idleTimeoutMs) {
+        this.maxOpenSessions = Math.max(1, maxOpenSessions);
+        this.idleTimeoutMs = Math.max(0, idleTimeoutMs);
+        evictIdleSessions(this.maxOpenSessions);
+    }
+
+    /**
+     * Returns a {@link DrmSessionManager} to pass to a player, which hands out shared sessions for
+     * the given key system and license server.
+     */
+    public DrmSessionManager<FrameworkMediaCrypto> getSessionManager(UUID uuid, String licenseUrl,
+            Map<String, String> keyRequestProperties, HttpDataSource.Factory httpDataSourceFactory) {
+        return new PlayerSessionManager(uuid, licenseUrl, keyRequestProperties, httpDataSourceFactory);
+    }
+
+    /**
+     * Closes all sessions that are not in use.
+     */
+    public synchronized void releaseIdleSessions() {
+        evictIdleSessions(0);
+    }
+
+    private synchronized DrmSession<FrameworkMediaCrypto> acquire(PlayerSessionManager config,
+                                                                  DrmInitData drmInitData) {
+        String contentId = DrmLicenseStore.getContentId(drmInitData, config.uuid);
+        String keyIds = DrmKeyIds.get(drmInitData, config.uuid);
+        String key = config.uuid + "|" + config.licenseUrl + "|" + (keyIds != null ? keyIds : contentId);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.refCount == 0 && entry.session.getState() == DrmSession.STATE_ERROR) {
+            entries.remove(key);
+            entry.close();
+            entry = null;
+        }
+        if (entry == null) {
+            evictIdleSessions(maxOpenSessions - 1);
+            try {
+                entry = new Entry(config, obtainMediaDrm(config), drmInitData,
+                        DrmLicenseStore.getInstance(context).getKeySetId(contentId));
+            } catch (UnsupportedDrmException e) {
+                // Fails playback through the renderer like any other session error.
+                Log.w(TAG, "Failed to open DRM session " + key, e);
+                return new ErrorSession(e);
+            }
+            entries.put(key, entry);
+            Log.d(TAG, "Opened DRM session " + key + ", " + entries.size() + " open");
+        } else {
+            Log.d(TAG, "Reusing DRM session " + key);
+        }
+        entry.refCount++;
+        return entry.session;
+    }
+
+    private synchronized void release(DrmSession<FrameworkMediaCrypto> session) {
+        for (Entry entry : entries.values()) {
+            if (entry.session == session) {
+                entry.refCount--;
+                entry.idleSinceMs = SystemClock.elapsedRealtime();
+                break;
+            }
+        }
+        scheduleEviction();
+    }
+
+    /**
+     * Closes idle sessions that timed out, then further idle sessions until at most
+     * {@code maxSessions} remain.
+     */
+    private synchronized void evictIdleSessions(int maxSessions) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        int openSessions = entries.size();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            boolean expired = now - entry.idleSinceMs >= idleTimeoutMs;
+            if (entry.refCount == 0 && (expired || openSessions > maxSessions)) {
+                iterator.remove();
+                entry.close();
+                openSessions--;
+            }
+        }
+        scheduleEviction();
+    }
+
+    /**
+     * Returns the media DRM the sessions of {@code config} are opened on, creating it if no
+     * session of its key system and license server is open.
+     */
+    private SharedMediaDrm obtainMediaDrm(PlayerSessionManager config) throws UnsupportedDrmException {
+        String key = config.uuid + "|" + config.licenseUrl;
+        SharedMediaDrm mediaDrm = mediaDrms.get(key);
+        if (mediaDrm == null) {
+            mediaDrm = new SharedMediaDrm(key, FrameworkMediaDrm.newInstance(config.uuid));
+            mediaDrms.put(key, mediaDrm);
+        }
+        return mediaDrm;
+    }
+
+    private void scheduleEviction() {
+        handler.removeCallbacks(evictIdleRunnable);
+        for (Entry entry : entries.values()) {
+            if (entry.refCount == 0) {
+                handler.postDelayed(evictIdleRunnable, idleTimeoutMs);
+                return;
+            }
+        }
+    }
+
+    private final class Entry {
+
+        private final SharedMediaDrm mediaDrm;
+        private final DefaultDrmSessionManager<FrameworkMediaCrypto> sessionManager;
+        private final DrmSession<FrameworkMediaCrypto> session;
+        private int refCount;
+        private long idleSinceMs;
+
+        private Entry(PlayerSessionManager config, SharedMediaDrm mediaDrm, DrmInitData drmInitData,
+                      byte[] offlineKeySetId) {
+            this.mediaDrm = mediaDrm;
+            HttpMediaDrmCallback drmCallback = new HttpMediaDrmCallback(config.licenseUrl,
+                    config.httpDataSourceFactory, config.keyRequestProperties);
+            mediaDrm.users++;
+            sessionManager = new DefaultDrmSessionManager<>(config.uuid, mediaDrm.newScope(), drmCallback,
+                    null, null, null);
+            if (offlineKeySetId != null) {
+                sessionManager.setMode(DefaultDrmSessionManager.MODE_PLAYBACK, offlineKeySetId);
+            }
+            session = sessionManager.acquireSession(sessionLooper, drmInitData);
+            idleSinceMs = SystemClock.elapsedRealtime();
+        }
+
+        private void close() {
+            sessionManager.releaseSession(session);
+            // The session manager never releases its media DRM, so the last session does.
+            if (--mediaDrm.users == 0) {
+                mediaDrms.remove(mediaDrm.key);
+                mediaDrm.mediaDrm.release();
+            }
+        }
+    }
+
+    /**
+     * A {@link FrameworkMediaDrm} shared by the sessions of one key system and license server.
+     * Each session manager gets its own {@link Scope}, which passes on the events of the sessions
+     * opened through it only.
+     */
+    private static final class SharedMediaDrm implements ExoMediaDrm.OnEventListener<FrameworkMediaCrypto> {
+
+        private final String key;
+        private final FrameworkMediaDrm mediaDrm;
+        private final Map<ByteBuffer, Scope> scopes;
+        private int users;
+
+        private SharedMediaDrm(String key, FrameworkMediaDrm mediaDrm) {
+            this.key = key;
+            this.mediaDrm = mediaDrm;
+            scopes = new HashMap<>();
+            mediaDrm.setOnEventListener(this);
+        }
+
+        private Scope newScope() {
+            return new Scope();
+        }
+
+        @Override
+        public void onEvent(ExoMediaDrm<? extends FrameworkMediaCrypto> md, byte[] sessionId, int event,
+                            int extra, byte[] data) {
+            Scope scope;
+            synchronized (scopes) {
+                scope = sessionId != null ? scopes.get(ByteBuffer.wrap(sessionId)) : null;
+            }
+            if (scope != null && scope.listener != null) {
+                scope.listener.onEvent(scope, sessionId, event, extra, data);
+            } else {
+                Log.d(TAG, "Dropping DRM event " + event + " of an unknown session");
+            }
+        }
+
+        private final class Scope implements ExoMediaDrm<FrameworkMediaCrypto> {
+
+            private OnEventListener<? super FrameworkMediaCrypto> listener;
+
+            @Override
+            public void setOnEventListener(OnEventListener<? super FrameworkMediaCrypto> listener) {
+                this.listener = listener;
+            }
+
+            @Override
+            public byte[] openSession() throws NotProvisionedException, ResourceBusyException {
+                byte[] sessionId = mediaDrm.openSession();
+                synchronized (scopes) {
+                    scopes.put(ByteBuffer.wrap(sessionId), this);
+                }
+                return sessionId;
+            }
+
+            @Override
+            public void closeSession(byte[] sessionId) {
+                synchronized (scopes) {
+                    scopes.remove(ByteBuffer.wrap(sessionId));
+                }
+                mediaDrm.closeSession(sessionId);
+            }
+
+            @Override
+            public KeyRequest getKeyRequest(byte[] scope, byte[] init, String mimeType, int keyType,
+                                            HashMap<String, String> optionalParameters)
+                    throws NotProvisionedException {
+                return mediaDrm.getKeyRequest(scope, init, mimeType, keyType, optionalParameters);
+            }
+
+            @Override
+            public byte[] provideKeyResponse(byte[] scope, byte[] response)
+                    throws NotProvisionedException, DeniedByServerException {
+                return mediaDrm.provideKeyResponse(scope, response);
+            }
+
+            @Override
+            public ProvisionRequest getProvisionRequest() {
+                return mediaDrm.getProvisionRequest();
+            }
+
+            @Override
+            public void provideProvisionResponse(byte[] response) throws DeniedByServerException {
+                mediaDrm.provideProvisionResponse(response);
+            }
+
+            @Override
+            public Map<String, String> queryKeyStatus(byte[] sessionId) {
+                return mediaDrm.queryKeyStatus(sessionId);
+            }
+
+            @Override
+            public void release() {
+                // Released by the pool with the last session.
+            }
+
+            @Override
+            public void restoreKeys(byte[] sessionId, byte[] keySetId) {
+                mediaDrm.restoreKeys(sessionId, keySetId);
+            }
+
+            @Override
+            public String getPropertyString(String propertyName) {
+                return mediaDrm.getPropertyString(propertyName);
+            }
+
+            @Override
+            public byte[] getPropertyByteArray(String propertyName) {
+                return mediaDrm.getPropertyByteArray(propertyName);
+            }
+
+            @Override
+            public void setPropertyString(String propertyName, String value) {
+                mediaDrm.setPropertyString(propertyName, value);
+            }
+
+            @Override
+            public void setPropertyByteArray(String propertyName, byte[] value) {
+                mediaDrm.setPropertyByteArray(propertyName, value);
+            }
+
+            @Override
+            public FrameworkMediaCrypto createMediaCrypto(UUID uuid, byte[] initData) throws MediaCryptoException {
+                return mediaDrm.createMediaCrypto(uuid, initData);
+            }
+        }
+    }
+
+    /**
+     * A session that could not be opened. It is not pooled, so the next acquire tries again.
+     */
+    private static final class ErrorSession implements DrmSession<FrameworkMediaCrypto> {
+
+        private final DrmSessionException error;
+
+        private ErrorSession(Exception cause) {
+            error = new DrmSessionException(cause);
+        }
+
+        @Override
+        public int getState() {
+            return STATE_ERROR;
+        }
+
+        @Override
+        public FrameworkMediaCrypto getMediaCrypto() {
+            return null;
+        }
+
+        @Override
+        public boolean requiresSecureDecoderComponent(String mimeType) {
+            return false;
+        }
+
+        @Override
+        public DrmSessionException getError() {
+            return error;
+        }
+    }
+
+    private final class PlayerSessionManager implements DrmSessionManager<FrameworkMediaCrypto> {
+
+        private final UUID uuid;
+        private final String licenseUrl;
+        private final Map<String, String> keyRequestProperties;
+        private final HttpDataSource.Factory httpDataSourceFactory;
+
+        private PlayerSessionManager(UUID uuid, String licenseUrl, Map<String, String> keyRequestProperties,
+                                     HttpDataSource.Factory httpDataSourceFactory) {
+            this.uuid = uuid;
+            this.licenseUrl = licenseUrl;
+            this.keyRequestProperties = keyRequestProperties;
+            this.httpDataSourceFactory = httpDataSourceFactory;
+        }
+
+        @Override
+        public DrmSession<FrameworkMediaCrypto> acquireSession(Looper playbackLooper, DrmInitData drmInitData) {
+            return acquire(this, drmInitData);
+        }
+
+        @Override
+        public void releaseSession(DrmSession<FrameworkMediaCrypto> drmSession) {
+            release(drmSession);
+        }
+    }
+}
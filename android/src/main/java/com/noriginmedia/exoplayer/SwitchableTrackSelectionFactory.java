@@ -0,0 +1,31 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * A {@link TrackSelection.Factory} that forwards to a delegate which can be replaced after the
+ * owning {@link com.google.android.exoplayer2.trackselection.DefaultTrackSelector} was created.
+ * Lets pooled players pick up the adaptive policy of whoever checked them out.
+ */
+public class SwitchableTrackSelectionFactory implements TrackSelection.Factory {
+
+    private volatile TrackSelection.Factory delegate;
+
+    public SwitchableTrackSelectionFactory(TrackSelection.Factory delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setDelegate(TrackSelection.Factory delegate) {
+        this.delegate = delegate;
+    }
+
+    public TrackSelection.Factory getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public TrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+        return delegate.createTrackSelection(group, tracks);
+    }
+}
@@ -0,0 +1,172 @@
+package com.noriginmedia.exoplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
+
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of the tracks of the current stream, built once per
+ * {@link ExoPlayer.EventListener#onTracksChanged} so that getters polled by the UI do not rescan
+ * the mapped track info or allocate.
+ */
+public final class TrackCatalogue {
+
+    public static final TrackCatalogue EMPTY = new TrackCatalogue();
+
+    public static final class Track {
+
+        public final int rendererIndex;
+        public final int groupIndex;
+        public final int trackIndex;
+        public final Format format;
+        /**
+         * The track language, or an empty string if undetermined.
+         */
+        public final String language;
+
+        private Track(int rendererIndex, int groupIndex, int trackIndex, Format format) {
+            this.rendererIndex = rendererIndex;
+            this.groupIndex = groupIndex;
+            this.trackIndex = trackIndex;
+            this.format = format;
+            language = buildLanguageString(format);
+        }
+
+        /**
+         * Returns whether the track carries the given {@code C.SELECTION_FLAG_*} role.
+         */
+        public boolean hasRole(int selectionFlag) {
+            return (format.selectionFlags & selectionFlag) != 0;
+        }
+    }
+
+    private final SparseArray<TypeIndex> typeIndexes;
+
+    private TrackCatalogue() {
+        typeIndexes = new SparseArray<>();
+    }
+
+    /**
+     * Builds the catalogue of {@code mappedTrackInfo}. For each track type, only the first renderer
+     * of that type with tracks is indexed, matching how the player selects tracks.
+     */
+    public static TrackCatalogue build(MappingTrackSelector.MappedTrackInfo mappedTrackInfo, ExoPlayer player) {
+        if (mappedTrackInfo == null) {
+            return EMPTY;
+        }
+        TrackCatalogue catalogue = new TrackCatalogue();
+        for (int rendererIndex = 0; rendererIndex < mappedTrackInfo.length; rendererIndex++) {
+            TrackGroupArray trackGroups = mappedTrackInfo.getTrackGroups(rendererIndex);
+            int type = player.getRendererType(rendererIndex);
+            if (trackGroups.length != 0 && catalogue.typeIndexes.get(type) == null) {
+                catalogue.typeIndexes.put(type, new TypeIndex(rendererIndex, trackGroups));
+            }
+        }
+        return catalogue;
+    }
+
+    /**
+     * Returns the index of the renderer playing tracks of {@code type}, or -1 if there is none.
+     */
+    public int getRendererIndex(int type) {
+        TypeIndex index = typeIndexes.get(type);
+        return index != null ? index.rendererIndex : -1;
+    }
+
+    /**
+     * Returns the track groups of {@code type}, or null if there are none.
+     */
+    public TrackGroupArray getTrackGroups(int type) {
+        TypeIndex index = typeIndexes.get(type);
+        return index != null ? index.trackGroups : null;
+    }
+
+    /**
+     * Returns the tracks of {@code type} in group and track order.
+     */
+    public List<Track> getTracks(int type) {
+        TypeIndex index = typeIndexes.get(type);
+        return index != null ? index.tracks : Collections.<Track>emptyList();
+    }
+
+    /**
+     * Returns the language of each track of {@code type} in group and track order.
+     */
+    public List<String> getLanguages(int type) {
+        TypeIndex index = typeIndexes.get(type);
+        return index != null ? index.languages : Collections.<String>emptyList();
+    }
+
+    /**
+     * Returns the first track of {@code type} in {@code language}, or null if there is none. A null
+     * or empty language matches tracks with an undetermined language.
+     */
+    public Track findByLanguage(int type, String language) {
+        TypeIndex index = typeIndexes.get(type);
+        return index != null ? index.tracksByLanguage.get(language == null ? "" : language) : null;
+    }
+
+    /**
+     * Returns the first track of {@code type} with the given {@code C.SELECTION_FLAG_*} role, or
+     * null if there is none.
+     */
+    public Track findByRole(int type, int selectionFlag) {
+        for (Track track : getTracks(type)) {
+            if (track.hasRole(selectionFlag)) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return typeIndexes.size() == 0;
+    }
+
+    private static String buildLanguageString(Format format) {
+        return TextUtils.isEmpty(format.language) || "und".equals(format.language) ? ""
+                : format.language;
+    }
+
+    private static final class TypeIndex {
+
+        private final int rendererIndex;
+        private final TrackGroupArray trackGroups;
+        private final List<Track> tracks;
+        private final List<String> languages;
+        private final Map<String, Track> tracksByLanguage;
+
+        private TypeIndex(int rendererIndex, TrackGroupArray trackGroups) {
+            this.rendererIndex = rendererIndex;
+            this.trackGroups = trackGroups;
+            ArrayList<Track> tracks = new ArrayList<>();
+            ArrayList<String> languages = new ArrayList<>();
+            tracksByLanguage = new HashMap<>();
+            for (int groupIndex = 0; groupIndex < trackGroups.length; groupIndex++) {
+                TrackGroup trackGroup = trackGroups.get(groupIndex);
+                for (int trackIndex = 0; trackIndex < trackGroup.length; trackIndex++) {
+                    Track track = new Track(rendererIndex, groupIndex, trackIndex, trackGroup.getFormat(trackIndex));
+                    tracks.add(track);
+                    languages.add(track.language);
+                    if (!tracksByLanguage.containsKey(track.language)) {
+                        tracksByLanguage.put(track.language, track);
+                    }
+                }
+            }
+            this.tracks = Collections.unmodifiableList(tracks);
+            this.languages = Collections.unmodifiableList(languages);
+        }
+    }
+}
@@ -16,34 +16,35 @@
 package com.noriginmedia.exoplayer;
 
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ExoPlayerFactory;
-import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
-import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
+import com.google.android.exoplayer2.drm.DrmInitData;
 import com.google.android.exoplayer2.drm.DrmSessionManager;
 import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
-import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
-import com.google.android.exoplayer2.drm.HttpMediaDrmCallback;
 import com.google.android.exoplayer2.drm.UnsupportedDrmException;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.source.dash.DashMediaSource;
 import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
 import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
 import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
 import com.google.android.exoplayer2.trackselection.AdaptiveVideoTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
@@ -52,10 +53,10 @@ import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.util.Util;
 
 import android.content.Context;
+import android.media.MediaDrm;
 import android.net.Uri;
 import android.os.Handler;
 import android.text.TextUtils;
-import android.util.Pair;
 
 import java.net.CookieHandler;
 import java.net.CookieManager;
@@ -77,6 +78,34 @@ public class VideoPlayer {
     private static final CookieManager DEFAULT_COOKIE_MANAGER;
     private static final TrackSelection.Factory FIXED_FACTORY = new FixedTrackSelection.Factory();
 
+    public static final int DEFAULT_PLAYLIST_PRELOAD_WINDOW = 2;
+
+    private static final long RESUME_SAVE_INTERVAL_MS = 5000;
+    /**
+     * Positions closer than this to the start or the end of a stream are not resumed from.
+     */
+    private static final long RESUME_MARGIN_MS = 10000;
+
+    /**
+     * Adapts the video bitrate to the measured throughput.
+     */
+    public static final String ABR_POLICY_THROUGHPUT = "throughput";
+    /**
+     * Adapts the video bitrate to the buffer level, capped by the throughput.
+     *
+     * @see BufferBasedTrackSelection
+     */
+    public static final String ABR_POLICY_BUFFER = "buffer";
+
+    public interface PlaylistListener {
+
+        /**
+         * Called when playback moves to the item at {@code index} of the playlist, including the
+         * first item once it is prepared.
+         */
+        void onPlaylistItemChanged(int index);
+    }
+
     static {
         DEFAULT_COOKIE_MANAGER = new CookieManager();
         DEFAULT_COOKIE_MANAGER.setCookiePolicy(CookiePolicy.ACCEPT_ORIGINAL_SERVER);
@@ -88,16 +117,66 @@ public class VideoPlayer {
     private ExoPlayerView simpleExoPlayerView;
 
     private DataSource.Factory mediaDataSourceFactory;
+    private DataSource.Factory progressiveDataSourceFactory;
     private SimpleExoPlayer player;
+    private PlayerPool.PooledPlayer pooledPlayer;
+    private ExoPlayer.EventListener playerListener;
+    private final PlayerEventListener playerEventListener;
+    private Uri currentUri;
+    private TrackCatalogue trackCatalogue = TrackCatalogue.EMPTY;
+
+    private List<String> playlist;
+    private LazyMediaSource[] playlistSources;
+    private int playlistPreloadWindow = DEFAULT_PLAYLIST_PRELOAD_WINDOW;
+    private int playlistStartIndex;
+    private int playlistIndex = C.INDEX_UNSET;
+    private PlaylistListener playlistListener;
+    private final LiveEdgeTracker liveEdgeTracker;
+    private final ChannelZapper channelZapper;
+    private final SeekScheduler seekScheduler;
+    private final ResumePositionStore resumePositionStore;
+    private boolean resumePositionEnabled = true;
+
+    private final Runnable savePlaybackStateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveResumePosition();
+            saveBandwidthEstimate();
+            if (player != null && player.getPlayWhenReady()
+                    && player.getPlaybackState() == ExoPlayer.STATE_READY) {
+                mainHandler.postDelayed(this, RESUME_SAVE_INTERVAL_MS);
+            }
+        }
+    };
+    private List<String> zapNeighbours;
+    private final MemoryPressureMonitor.Listener memoryPressureListener;
 
     private DefaultTrackSelector trackSelector;
+    private final SwitchableTrackSelectionFactory videoTrackSelectionFactory;
+    private TrackSelection.Factory adaptiveTrackSelectionFactory;
     private Context mContext;
     private String userAgent;
+    private MediaCache mediaCache;
+    private int parallelRangeConnections;
+    private HttpDataSourceFactoryProvider httpDataSourceFactoryProvider;
+    private BufferingProfile bufferingProfile = BufferingProfile.DEFAULT;
+    private String abrPolicy = ABR_POLICY_THROUGHPUT;
+    private float resolutionCapFactor;
+    private int viewportWidth;
+    private int viewportHeight;
+
+    private String drmScheme;
+    private String drmLicenseUrl;
+    private String[] keyRequestPropertiesArray;
+    private UUID drmUuid;
+    private Map<String, String> keyRequestProperties;
+    private DrmSessionManager<FrameworkMediaCrypto> drmSessionManager;
 
 
     public VideoPlayer(ExoPlayerView simpleExoPlayerView, Context context) {
         mContext = context;
         userAgent = Util.getUserAgent(mContext, "ExoVideoPlayer");
+        httpDataSourceFactoryProvider = PooledHttpClient.getInstance();
         mediaDataSourceFactory = buildDataSourceFactory(true);
         mainHandler = new Handler();
         window = new Timeline.Window();
@@ -105,9 +184,52 @@ public class VideoPlayer {
             CookieHandler.setDefault(DEFAULT_COOKIE_MANAGER);
         }
         this.simpleExoPlayerView = simpleExoPlayerView;
+        playerEventListener = new PlayerEventListener();
+        videoTrackSelectionFactory = new SwitchableTrackSelectionFactory(null);
+        liveEdgeTracker = new LiveEdgeTracker(mainHandler);
+        seekScheduler = new SeekScheduler(mainHandler);
+        resumePositionStore = ResumePositionStore.getInstance(mContext);
+        DecoderCapabilities decoderCapabilities = DecoderCapabilities.getInstance(mContext);
+        decoderCapabilities.load();
+        decoderCapabilities.runWhenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                // Tracks selected before a profile queried in the background arrived are filtered now.
+                if (trackSelector instanceof DecoderCapabilityTrackSelector) {
+                    ((DecoderCapabilityTrackSelector) trackSelector).onCapabilitiesChanged();
+                }
+            }
+        });
+        channelZapper = new ChannelZapper(mContext, mainHandler, new ChannelZapper.MediaSourceBuilder() {
+            @Override
+            public MediaSource buildMediaSource(Uri uri) {
+                int type = getContentType(uri);
+                return type != ContentTypeProbe.TYPE_UNKNOWN ? VideoPlayer.this.buildMediaSource(uri, type) : null;
+            }
+        });
+        memoryPressureListener = new MemoryPressureMonitor.Listener() {
+            @Override
+            public void onMemoryPressureChanged(int level) {
+                // Hidden channels go first, the player on screen only loses buffer.
+                channelZapper.setChannelLimit(level == MemoryPressureMonitor.LEVEL_NONE ? ChannelZapper.MAX_CHANNELS
+                        : level == MemoryPressureMonitor.LEVEL_MODERATE ? 1 : 0);
+                if (level == MemoryPressureMonitor.LEVEL_NONE && player != null
+                        && player.getPlaybackState() == ExoPlayer.STATE_READY) {
+                    updateZapNeighbours();
+                }
+            }
+        };
+        simpleExoPlayerView.setViewportListener(new ExoPlayerView.ViewportListener() {
+            @Override
+            public void onViewportSizeChanged(int width, int height) {
+                viewportWidth = width;
+                viewportHeight = height;
+                updateTrackSelectorParameters();
+            }
+        });
     }
 
-    private UUID getDrmUuid(String typeString) {
+    static UUID getDrmUuid(String typeString) {
         if (!TextUtils.isEmpty(typeString)) {
             switch (typeString.toLowerCase()) {
                 case "widevine":
@@ -126,9 +248,11 @@ public class VideoPlayer {
 
     public void initializePlayer(ExoPlayer.EventListener listener, String drmScheme, String drmLicenseUrl, String[] keyRequestPropertiesArray) {
         if (player == null) {
-            DrmSessionManager<FrameworkMediaCrypto> drmSessionManager = null;
+            this.drmScheme = drmScheme;
+            this.drmLicenseUrl = drmLicenseUrl;
+            this.keyRequestPropertiesArray = keyRequestPropertiesArray;
+            drmSessionManager = null;
             if (drmScheme != null) {
-                Map<String, String> keyRequestProperties;
                 if (keyRequestPropertiesArray == null || keyRequestPropertiesArray.length < 2) {
                     keyRequestProperties = null;
                 } else {
@@ -138,8 +262,9 @@ public class VideoPlayer {
                                 keyRequestPropertiesArray[i + 1]);
                     }
                 }
+                drmUuid = getDrmUuid(drmScheme);
                 try {
-                    drmSessionManager = buildDrmSessionManager(getDrmUuid(drmScheme), drmLicenseUrl,
+                    drmSessionManager = buildDrmSessionManager(drmUuid, drmLicenseUrl,
                             keyRequestProperties);
                 } catch (UnsupportedDrmException e) {
                     e.printStackTrace();
@@ -147,69 +272,618 @@ public class VideoPlayer {
                 }
             }
 
-            @SimpleExoPlayer.ExtensionRendererMode int extensionRendererMode = SimpleExoPlayer.EXTENSION_RENDERER_MODE_OFF;
+            adaptiveTrackSelectionFactory = buildVideoTrackSelectionFactory();
+            videoTrackSelectionFactory.setDelegate(adaptiveTrackSelectionFactory);
+            if (drmSessionManager == null) {
+                pooledPlayer = PlayerPool.getInstance(mContext).acquire(bufferingProfile,
+                        videoTrackSelectionFactory);
+                player = pooledPlayer.player;
+                trackSelector = pooledPlayer.trackSelector;
+            } else {
+                @SimpleExoPlayer.ExtensionRendererMode int extensionRendererMode = SimpleExoPlayer.EXTENSION_RENDERER_MODE_OFF;
 
-            TrackSelection.Factory videoTrackSelectionFactory =
-                    new AdaptiveVideoTrackSelection.Factory(BANDWIDTH_METER);
-            trackSelector = new DefaultTrackSelector(videoTrackSelectionFactory);
-            player = ExoPlayerFactory.newSimpleInstance(mContext, trackSelector, new DefaultLoadControl(),
-                    drmSessionManager, extensionRendererMode);
+                trackSelector = new DecoderCapabilityTrackSelector(DecoderCapabilities.getInstance(mContext),
+                        videoTrackSelectionFactory);
+                player = ExoPlayerFactory.newSimpleInstance(mContext, trackSelector,
+                        bufferingProfile.createLoadControl(), drmSessionManager, extensionRendererMode);
+            }
 
-            player.addListener(listener);
+            playerListener = listener;
+            attachPlayer();
+            player.setPlayWhenReady(false);
+            MemoryPressureMonitor memoryPressureMonitor = MemoryPressureMonitor.getInstance(mContext);
+            memoryPressureMonitor.addListener(memoryPressureListener);
+            memoryPressureListener.onMemoryPressureChanged(memoryPressureMonitor.getLevel());
+        }
+    }
+
+    /**
+     * Registers the listeners and outputs on {@link #player} and puts it on screen.
+     */
+    private void attachPlayer() {
+        updateTrackSelectorParameters();
 
-            eventLogger = new EventLogger(trackSelector);
-            player.addListener(eventLogger);
-            player.setAudioDebugListener(eventLogger);
-            player.setVideoDebugListener(eventLogger);
-            player.setMetadataOutput(eventLogger);
+        // Registered first so the track catalogue is current when the caller's listener runs
+        player.addListener(playerEventListener);
+        player.addListener(playerListener);
 
-            simpleExoPlayerView.setPlayer(player);
-            player.setPlayWhenReady(false);
+        eventLogger = new EventLogger(trackSelector);
+        player.addListener(eventLogger);
+        player.setAudioDebugListener(eventLogger);
+        player.setVideoDebugListener(eventLogger);
+        player.setMetadataOutput(eventLogger);
+        liveEdgeTracker.attach(player);
+        seekScheduler.setPlayer(player);
+
+        simpleExoPlayerView.setPlayer(player);
+    }
+
+    /**
+     * Puts the preloaded {@code next} player on screen in place of the current pooled one, which is
+     * kept as a hidden channel if {@code previousUri} is one of the zapping neighbours.
+     */
+    private void swapPlayer(PlayerPool.PooledPlayer next, Uri previousUri, boolean keepPrevious) {
+        PlayerPool.PooledPlayer previous = pooledPlayer;
+        liveEdgeTracker.detach();
+        player.removeListener(playerListener);
+        player.removeListener(playerEventListener);
+        player.removeListener(eventLogger);
+        player.setAudioDebugListener(null);
+        player.setVideoDebugListener(null);
+        player.setMetadataOutput(null);
+        if (!keepPrevious || !channelZapper.offer(previousUri, previous)) {
+            PlayerPool.getInstance(mContext).release(previous);
         }
+        pooledPlayer = next;
+        player = next.player;
+        trackSelector = next.trackSelector;
+        attachPlayer();
+        trackCatalogue = TrackCatalogue.build(trackSelector.getCurrentMappedTrackInfo(), player);
+        player.setPlayWhenReady(true);
     }
 
+    /**
+     * Prepares the player with {@code stream}. If the stream type cannot be told from the URI and
+     * has not been probed for URIs of the same shape before, the player is prepared once a
+     * {@link ContentTypeProbe} has resolved it.
+     */
     public void preparePlayer(String stream) {
-        MediaSource mediaSource = buildMediaSource(Uri.parse(stream), null);
+        saveResumePosition();
+        final Uri uri = Uri.parse(stream);
+        Uri previousUri = currentUri;
+        boolean wasPlaylist = playlist != null;
+        currentUri = uri;
+        playlist = null;
+        playlistSources = null;
+        trackCatalogue = TrackCatalogue.EMPTY;
+        PlayerPool.PooledPlayer preloaded = pooledPlayer != null
+                ? channelZapper.take(uri, bufferingProfile) : null;
+        if (preloaded != null) {
+            swapPlayer(preloaded, previousUri, !wasPlaylist);
+            return;
+        }
+        preconnect(uri);
+        int type = getContentType(uri);
+        if (type != ContentTypeProbe.TYPE_UNKNOWN) {
+            preparePlayer(uri, type);
+            return;
+        }
+        ContentTypeProbe.getInstance(mContext).probe(uri, buildHttpDataSourceFactory(false), mainHandler,
+                new ContentTypeProbe.Callback() {
+                    @Override
+                    public void onContentTypeResolved(Uri resolvedUri, int resolvedType) {
+                        // Drop the result if the player was released or moved on meanwhile.
+                        if (player != null && uri == currentUri) {
+                            preparePlayer(uri, resolvedType);
+                        }
+                    }
+                });
+    }
+
+    private void preparePlayer(final Uri uri, int type) {
+        // Pins playback to the downloaded video track if the stream has been downloaded.
+        videoTrackSelectionFactory.setDelegate(DownloadManager.getInstance(mContext)
+                .getTrackSelectionFactory(uri, adaptiveTrackSelectionFactory));
+        MediaSource mediaSource = buildMediaSource(uri, type);
+        liveEdgeTracker.reset();
         player.setPlayWhenReady(true);
         player.prepare(mediaSource);
+        if (resumePositionEnabled) {
+            resumePositionStore.lookup(uri.toString(), new ResumePositionStore.Callback() {
+                @Override
+                public void onPositionLoaded(String key, long positionMs) {
+                    // The player applies the seek once the timeline of the new source is known.
+                    if (player != null && uri.equals(currentUri) && positionMs != C.TIME_UNSET) {
+                        player.seekTo(positionMs);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Prepares the player with {@code streams}, starting at {@code startIndex}.
+     * <p>
+     * All items are concatenated into one timeline, so playback moves from one item to the next
+     * without a re-prepare or a gap. Only the current item and the
+     * {@link #setPlaylistPreloadWindow preload window} after it are prepared; the items beyond are
+     * {@link LazyMediaSource placeholders} that are prepared as playback moves towards them.
+     */
+    public void preparePlaylist(List<String> streams, int startIndex) {
+        if (streams.isEmpty()) {
+            stop();
+            return;
+        }
+        final List<String> preparedPlaylist = new ArrayList<>(streams);
+        playlist = preparedPlaylist;
+        playlistSources = null;
+        playlistStartIndex = Math.max(0, Math.min(startIndex, playlist.size() - 1));
+        playlistIndex = C.INDEX_UNSET;
+        final Uri[] uris = new Uri[preparedPlaylist.size()];
+        final int[] types = new int[uris.length];
+        int unresolved = 0;
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = Uri.parse(preparedPlaylist.get(i));
+            types[i] = getContentType(uris[i]);
+            if (types[i] == ContentTypeProbe.TYPE_UNKNOWN) {
+                unresolved++;
+            }
+        }
+        currentUri = uris[playlistStartIndex];
+        trackCatalogue = TrackCatalogue.EMPTY;
+        preconnect(currentUri);
+        if (unresolved == 0) {
+            preparePlaylist(uris, types);
+            return;
+        }
+        final int[] pendingProbes = {unresolved};
+        for (int i = 0; i < uris.length; i++) {
+            if (types[i] != ContentTypeProbe.TYPE_UNKNOWN) {
+                continue;
+            }
+            final int item = i;
+            ContentTypeProbe.getInstance(mContext).probe(uris[i], buildHttpDataSourceFactory(false),
+                    mainHandler, new ContentTypeProbe.Callback() {
+                        @Override
+                        public void onContentTypeResolved(Uri resolvedUri, int resolvedType) {
+                            types[item] = resolvedType;
+                            // Drop the result if the player was released or moved on meanwhile.
+                            if (--pendingProbes[0] == 0 && player != null && playlist == preparedPlaylist) {
+                                preparePlaylist(uris, types);
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Sets how many items after the current one are prepared ahead, at least one so that the next
+     * item is ready when the current one ends. Takes effect as playback moves to the next item.
+     */
+    public void setPlaylistPreloadWindow(int items) {
+        playlistPreloadWindow = Math.max(1, items);
+        loadPlaylistWindow(playlistIndex != C.INDEX_UNSET ? playlistIndex : playlistStartIndex);
+    }
+
+    public void setPlaylistListener(PlaylistListener playlistListener) {
+        this.playlistListener = playlistListener;
+    }
+
+    /**
+     * Returns the index of the playing playlist item, or {@link C#INDEX_UNSET} if no playlist is
+     * prepared.
+     */
+    public int getPlaylistIndex() {
+        return playlist != null ? playlistIndex : C.INDEX_UNSET;
+    }
+
+    private void preparePlaylist(Uri[] uris, int[] types) {
+        videoTrackSelectionFactory.setDelegate(adaptiveTrackSelectionFactory);
+        if (uris.length == 1) {
+            liveEdgeTracker.reset();
+            player.setPlayWhenReady(true);
+            player.prepare(buildMediaSource(uris[0], types[0]));
+            return;
+        }
+        LazyMediaSource[] mediaSources = new LazyMediaSource[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            mediaSources[i] = new LazyMediaSource(buildMediaSource(uris[i], types[i]),
+                    isInPlaylistWindow(i, playlistStartIndex));
+        }
+        playlistSources = mediaSources;
+        liveEdgeTracker.reset();
+        player.setPlayWhenReady(true);
+        player.prepare(new ConcatenatingMediaSource(mediaSources));
+        if (playlistStartIndex > 0) {
+            // Resolved once the timeline is known.
+            player.seekToDefaultPosition(playlistStartIndex);
+        }
+    }
+
+    private boolean isInPlaylistWindow(int index, int currentIndex) {
+        return index >= currentIndex && index - currentIndex <= playlistPreloadWindow;
+    }
+
+    /**
+     * Prepares the items of the preload window after {@code currentIndex} that are not prepared
+     * yet. Items left behind stay prepared.
+     */
+    private void loadPlaylistWindow(int currentIndex) {
+        if (playlistSources == null) {
+            return;
+        }
+        for (int i = currentIndex; i < playlistSources.length && isInPlaylistWindow(i, currentIndex); i++) {
+            playlistSources[i].load();
+        }
     }
 
-    private MediaSource buildMediaSource(Uri uri, String overrideExtension) {
-        int type = Util.inferContentType(!TextUtils.isEmpty(overrideExtension) ? "." + overrideExtension
-                : uri.getLastPathSegment());
+    /**
+     * Notifies the playlist listener if playback has moved to another item of the playlist, and
+     * moves the preload window along.
+     */
+    private void updatePlaylistIndex() {
+        Timeline timeline = player.getCurrentTimeline();
+        if (playlist == null || timeline == null || timeline.getWindowCount() == 0) {
+            return;
+        }
+        int index = player.getCurrentWindowIndex();
+        if (index != playlistIndex) {
+            playlistIndex = index;
+            loadPlaylistWindow(index);
+            currentUri = Uri.parse(playlist.get(index));
+            if (playlistListener != null) {
+                playlistListener.onPlaylistItemChanged(index);
+            }
+        }
+    }
+
+    private void preconnect(Uri uri) {
+        if (httpDataSourceFactoryProvider != null) {
+            httpDataSourceFactoryProvider.preconnect(uri, userAgent);
+        }
+    }
+
+    /**
+     * Returns the type of {@code uri} if it can be told from its extension, was resolved when it
+     * was downloaded or was probed before, or {@link ContentTypeProbe#TYPE_UNKNOWN}.
+     */
+    private int getContentType(Uri uri) {
+        int type = ContentTypeProbe.inferContentType(uri);
+        if (type == ContentTypeProbe.TYPE_UNKNOWN) {
+            type = DownloadManager.getInstance(mContext).getContentType(uri);
+        }
+        if (type == ContentTypeProbe.TYPE_UNKNOWN) {
+            type = ContentTypeProbe.getInstance(mContext).getCachedType(uri);
+        }
+        return type;
+    }
+
+    /**
+     * Builds the media source of {@code uri}. Its requests are served from the stream's download
+     * if it has one.
+     */
+    private MediaSource buildMediaSource(Uri uri, int type) {
+        ManifestCache manifestCache = ManifestCache.getInstance();
+        DownloadManager downloadManager = DownloadManager.getInstance(mContext);
+        Object cachedManifest = manifestCache.getStaticManifest(uri);
+        // Requests for the manifest itself bypass the media cache, progressive streams are media.
+        DataSource.Factory mediaFactory = downloadManager.buildDataSourceFactory(uri,
+                mediaCache != null ? mediaCache.buildDataSourceFactory(mediaDataSourceFactory,
+                        type == C.TYPE_OTHER ? null : uri) : mediaDataSourceFactory);
         switch (type) {
             case C.TYPE_SS:
-                return new SsMediaSource(uri, buildDataSourceFactory(false),
-                        new DefaultSsChunkSource.Factory(mediaDataSourceFactory), mainHandler, eventLogger);
+                if (cachedManifest instanceof SsManifest) {
+                    return new SsMediaSource((SsManifest) cachedManifest,
+                            new DefaultSsChunkSource.Factory(mediaFactory), mainHandler, eventLogger);
+                }
+                return new SsMediaSource(uri, manifestCache.buildDataSourceFactory(uri, buildDataSourceFactory(false)),
+                        new DefaultSsChunkSource.Factory(mediaFactory), mainHandler, eventLogger);
             case C.TYPE_DASH:
-                return new DashMediaSource(uri, buildDataSourceFactory(false),
-                        new DefaultDashChunkSource.Factory(mediaDataSourceFactory), mainHandler, eventLogger);
+                if (cachedManifest instanceof DashManifest) {
+                    return new DashMediaSource((DashManifest) cachedManifest,
+                            new DefaultDashChunkSource.Factory(mediaFactory), mainHandler, eventLogger);
+                }
+                return new DashMediaSource(uri, manifestCache.buildDataSourceFactory(uri,
+                        downloadManager.buildDataSourceFactory(uri, buildDataSourceFactory(false))),
+                        new DefaultDashChunkSource.Factory(mediaFactory), mainHandler, eventLogger);
             case C.TYPE_HLS:
-                return new HlsMediaSource(uri, mediaDataSourceFactory, mainHandler, eventLogger);
-            case C.TYPE_OTHER:
-                return new ExtractorMediaSource(uri, mediaDataSourceFactory, new DefaultExtractorsFactory(),
+                return new HlsMediaSource(uri, manifestCache.buildDataSourceFactory(uri, mediaFactory),
                         mainHandler, eventLogger);
+            case C.TYPE_OTHER:
+                return new ExtractorMediaSource(uri, progressiveDataSourceFactory != null
+                        ? downloadManager.buildDataSourceFactory(uri, progressiveDataSourceFactory) : mediaFactory,
+                        new DefaultExtractorsFactory(), mainHandler, eventLogger);
             default: {
                 throw new IllegalStateException("Unsupported type: " + type);
             }
         }
     }
 
+    /**
+     * Returns the adaptive video track selection factory. Before the shared bandwidth meter has
+     * measured anything in this process, the initial bitrate is seeded from the estimate stored for
+     * the current network. The throughput selection takes its initial bitrate as is, so the seed is
+     * scaled by the bandwidth fraction it applies to measured estimates.
+     */
+    private TrackSelection.Factory buildVideoTrackSelectionFactory() {
+        long initialBitrate = BANDWIDTH_METER.getBitrateEstimate();
+        if (initialBitrate == BandwidthMeter.NO_ESTIMATE) {
+            initialBitrate = BandwidthEstimateStore.getInstance(mContext).getInitialBitrate();
+        }
+        if (ABR_POLICY_BUFFER.equals(abrPolicy)) {
+            // ExoPlayer keeps the buffer between the min and max levels of the profile, so the
+            // rate map covers the range the buffer actually moves in.
+            return new BufferBasedTrackSelection.Factory(BANDWIDTH_METER, initialBitrate,
+                    bufferingProfile.maxBufferMs / 4, bufferingProfile.maxBufferMs / 2,
+                    BufferBasedTrackSelection.DEFAULT_BANDWIDTH_FRACTION);
+        }
+        if (initialBitrate == BandwidthMeter.NO_ESTIMATE) {
+            return new AdaptiveVideoTrackSelection.Factory(BANDWIDTH_METER);
+        }
+        return new AdaptiveVideoTrackSelection.Factory(BANDWIDTH_METER,
+                (int) (initialBitrate * AdaptiveVideoTrackSelection.DEFAULT_BANDWIDTH_FRACTION),
+                AdaptiveVideoTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+                AdaptiveVideoTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+                AdaptiveVideoTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+                AdaptiveVideoTrackSelection.DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * Sets how the video bitrate adapts, one of {@link #ABR_POLICY_THROUGHPUT} and
+     * {@link #ABR_POLICY_BUFFER}. Takes effect for the next {@link #preparePlayer(String)}.
+     */
+    public void setAbrPolicy(String abrPolicy) {
+        abrPolicy = ABR_POLICY_BUFFER.equals(abrPolicy) ? ABR_POLICY_BUFFER : ABR_POLICY_THROUGHPUT;
+        if (!this.abrPolicy.equals(abrPolicy)) {
+            this.abrPolicy = abrPolicy;
+            if (player != null) {
+                adaptiveTrackSelectionFactory = buildVideoTrackSelectionFactory();
+            }
+        }
+    }
+
+    /**
+     * Caps the video resolution to the size of the view times {@code factor}, or lifts the cap if
+     * {@code factor} is 0 or less. The cap follows the view as it is resized, for example when it
+     * goes fullscreen, so a small inline view does not load a variant it cannot show.
+     */
+    public void setResolutionCapFactor(float factor) {
+        resolutionCapFactor = Math.max(0, factor);
+        updateTrackSelectorParameters();
+    }
+
+    private void updateTrackSelectorParameters() {
+        if (trackSelector == null) {
+            return;
+        }
+        DefaultTrackSelector.Parameters parameters = trackSelector.getParameters();
+        if (resolutionCapFactor > 0 && viewportWidth > 0 && viewportHeight > 0) {
+            parameters = parameters.withViewportSize((int) (viewportWidth * resolutionCapFactor),
+                    (int) (viewportHeight * resolutionCapFactor), false);
+        } else {
+            parameters = parameters.withoutViewportSizeConstraints();
+        }
+        // Parameters are compared before a new selection is made, so unchanged sizes are cheap.
+        trackSelector.setParameters(parameters);
+    }
+
+    /**
+     * Sets the on-disk cache that media requests are served from, or null to stream without one.
+     * Takes effect for the next {@link #preparePlayer(String)}.
+     */
+    public void setMediaCache(MediaCache mediaCache) {
+        if (this.mediaCache != mediaCache) {
+            this.mediaCache = mediaCache;
+            progressiveDataSourceFactory = buildProgressiveDataSourceFactory();
+        }
+    }
+
+    /**
+     * Sets the number of connections progressive streams may be downloaded over in parallel, or 1
+     * or less to use a single connection. Takes effect for the next {@link #preparePlayer(String)}.
+     *
+     * @see ParallelRangeDataSource
+     */
+    public void setParallelRangeConnections(int maxConnections) {
+        if (parallelRangeConnections != maxConnections) {
+            parallelRangeConnections = maxConnections;
+            progressiveDataSourceFactory = buildProgressiveDataSourceFactory();
+        }
+    }
+
+    /**
+     * Sets the HTTP stack that requests are made with, or null to use
+     * {@link DefaultHttpDataSourceFactory}. Defaults to the shared {@link PooledHttpClient}. Takes
+     * effect for the next {@link #preparePlayer(String)}.
+     */
+    public void setHttpDataSourceFactoryProvider(HttpDataSourceFactoryProvider provider) {
+        if (httpDataSourceFactoryProvider != provider) {
+            httpDataSourceFactoryProvider = provider;
+            mediaDataSourceFactory = buildDataSourceFactory(true);
+            progressiveDataSourceFactory = buildProgressiveDataSourceFactory();
+        }
+    }
+
+    /**
+     * Sets the distance from the live edge that live streams are played at, or
+     * {@link C#TIME_UNSET} to play them from their default position and only report the latency.
+     *
+     * @see LiveEdgeTracker
+     */
+    public void setLiveTargetLatency(long targetLatencyMs) {
+        liveEdgeTracker.setTargetLatency(targetLatencyMs);
+    }
+
+    /**
+     * Sets how far beyond the target latency a live stream may fall behind before playback jumps
+     * back to the target.
+     */
+    public void setLiveMaxDrift(long maxDriftMs) {
+        liveEdgeTracker.setMaxDrift(maxDriftMs);
+    }
+
+    public void setLiveLatencyListener(LiveEdgeTracker.Listener listener) {
+        liveEdgeTracker.setListener(listener);
+    }
+
+    /**
+     * Returns the distance of the playback position from the live edge, or {@link C#TIME_UNSET} if
+     * no live stream is playing.
+     */
+    public long getLiveLatency() {
+        return liveEdgeTracker.getCurrentLatency();
+    }
+
+    /**
+     * Sets the channels the user is likely to switch to next, most likely first. Once the current
+     * stream plays, they are preloaded by hidden players so that a {@link #preparePlayer(String)}
+     * with one of them starts from its buffer. Players with DRM do not preload.
+     *
+     * @see ChannelZapper
+     */
+    public void setZapNeighbours(List<String> streams) {
+        zapNeighbours = streams != null && !streams.isEmpty() ? new ArrayList<>(streams) : null;
+        if (zapNeighbours == null) {
+            channelZapper.clear();
+        } else if (player != null && player.getPlaybackState() == ExoPlayer.STATE_READY) {
+            updateZapNeighbours();
+        }
+    }
+
+    /**
+     * @param preloadMs         How much media each neighbour buffers.
+     * @param memoryBudgetBytes The buffer memory all neighbours may take together.
+     */
+    public void configureZapping(long preloadMs, long memoryBudgetBytes) {
+        channelZapper.configure(preloadMs, memoryBudgetBytes);
+    }
+
+    private void updateZapNeighbours() {
+        if (zapNeighbours == null || pooledPlayer == null || playlist != null) {
+            return;
+        }
+        List<Uri> uris = new ArrayList<>();
+        for (String stream : zapNeighbours) {
+            Uri uri = Uri.parse(stream);
+            if (!uri.equals(currentUri)) {
+                uris.add(uri);
+            }
+        }
+        channelZapper.setNeighbours(uris, bufferingProfile, videoTrackSelectionFactory);
+    }
+
+    /**
+     * Sets whether {@link #preparePlayer(String)} resumes a stream where it last stopped. Positions
+     * are saved regardless. Defaults to true.
+     *
+     * @see ResumePositionStore
+     */
+    public void setResumePositionEnabled(boolean enabled) {
+        resumePositionEnabled = enabled;
+    }
+
+    /**
+     * Saves the playback position of the current stream, or forgets it if playback is close to
+     * either end. Live streams and playlists are not saved.
+     */
+    private void saveResumePosition() {
+        if (player == null || currentUri == null || playlist != null) {
+            return;
+        }
+        Timeline timeline = player.getCurrentTimeline();
+        if (timeline == null || timeline.getWindowCount() == 0) {
+            return;
+        }
+        timeline.getWindow(player.getCurrentWindowIndex(), window);
+        long durationMs = player.getDuration();
+        if (window.isDynamic || durationMs == C.TIME_UNSET) {
+            return;
+        }
+        long positionMs = player.getCurrentPosition();
+        String key = currentUri.toString();
+        if (positionMs < RESUME_MARGIN_MS || durationMs - positionMs < RESUME_MARGIN_MS) {
+            resumePositionStore.remove(key);
+        } else {
+            resumePositionStore.save(key, positionMs);
+        }
+    }
+
+    /**
+     * Stores the shared bandwidth estimate, so the next session starts from it even if the process
+     * is killed before the player is released.
+     */
+    private void saveBandwidthEstimate() {
+        BandwidthEstimateStore.getInstance(mContext).save(BANDWIDTH_METER.getBitrateEstimate());
+    }
+
+    /**
+     * Sets the buffering thresholds of the player. The load control cannot be changed on a live
+     * player, so an initialized player is rebuilt and the current stream prepared again.
+     */
+    public void setBufferingProfile(BufferingProfile bufferingProfile) {
+        if (this.bufferingProfile.equals(bufferingProfile)) {
+            return;
+        }
+        this.bufferingProfile = bufferingProfile;
+        if (player != null) {
+            ExoPlayer.EventListener listener = playerListener;
+            Uri uri = currentUri;
+            List<String> streams = playlist;
+            int index = playlistIndex != C.INDEX_UNSET ? playlistIndex : playlistStartIndex;
+            releasePlayer();
+            initializePlayer(listener, drmScheme, drmLicenseUrl, keyRequestPropertiesArray);
+            if (streams != null) {
+                preparePlaylist(streams, index);
+            } else if (uri != null) {
+                preparePlayer(uri.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns a session manager backed by the process-wide {@link SharedDrmSessionManager}, so
+     * sessions and their stored offline licenses are reused across players and prepares.
+     */
     private DrmSessionManager<FrameworkMediaCrypto> buildDrmSessionManager(UUID uuid,
 																		   String licenseUrl, Map<String, String> keyRequestProperties) throws UnsupportedDrmException {
         if (Util.SDK_INT < 18) {
             return null;
         }
-        HttpMediaDrmCallback drmCallback = new HttpMediaDrmCallback(licenseUrl,
-                buildHttpDataSourceFactory(false), keyRequestProperties);
-        return new DefaultDrmSessionManager<>(uuid,
-                FrameworkMediaDrm.newInstance(uuid), drmCallback, null, mainHandler, eventLogger);
+        if (uuid == null || !MediaDrm.isCryptoSchemeSupported(uuid)) {
+            throw new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME);
+        }
+        return SharedDrmSessionManager.getInstance(mContext).getSessionManager(uuid, licenseUrl,
+                keyRequestProperties, buildHttpDataSourceFactory(false));
     }
 
     public void releasePlayer() {
         if (player != null) {
-            player.release();
+            mainHandler.removeCallbacks(savePlaybackStateRunnable);
+            saveResumePosition();
+            saveBandwidthEstimate();
+            resumePositionStore.flush();
+            liveEdgeTracker.detach();
+            seekScheduler.setPlayer(null);
+            MemoryPressureMonitor.getInstance(mContext).removeListener(memoryPressureListener);
+            channelZapper.clear();
+            simpleExoPlayerView.setPlayer(null);
+            if (pooledPlayer != null) {
+                player.removeListener(playerListener);
+                player.removeListener(playerEventListener);
+                player.removeListener(eventLogger);
+                PlayerPool.getInstance(mContext).release(pooledPlayer);
+                pooledPlayer = null;
+            } else {
+                player.release();
+            }
             player = null;
+            playerListener = null;
+            currentUri = null;
+            playlist = null;
+            playlistSources = null;
+            playlistIndex = C.INDEX_UNSET;
+            trackCatalogue = TrackCatalogue.EMPTY;
+            drmSessionManager = null;
             trackSelector = null;
             eventLogger = null;
         }
@@ -238,12 +912,31 @@ public class VideoPlayer {
     }
 
 
+    /**
+     * Returns a factory that does not go through the media cache, which {@link #buildMediaSource}
+     * adds for media requests once it knows the stream.
+     */
     public DataSource.Factory buildDataSourceFactory(DefaultBandwidthMeter bandwidthMeter) {
-        return new DefaultDataSourceFactory(mContext, bandwidthMeter,
-                buildHttpDataSourceFactory(bandwidthMeter));
+        return new DefaultDataSourceFactory(mContext, bandwidthMeter, buildHttpDataSourceFactory(bandwidthMeter));
+    }
+
+    /**
+     * Returns the factory progressive streams are loaded with when parallel range requests are
+     * enabled, or null otherwise.
+     */
+    private DataSource.Factory buildProgressiveDataSourceFactory() {
+        if (parallelRangeConnections < 2) {
+            return null;
+        }
+        DataSource.Factory dataSourceFactory = new DefaultDataSourceFactory(mContext, BANDWIDTH_METER,
+                new ParallelRangeDataSource.Factory(buildHttpDataSourceFactory(true), parallelRangeConnections));
+        return mediaCache != null ? mediaCache.buildDataSourceFactory(dataSourceFactory) : dataSourceFactory;
     }
 
     public HttpDataSource.Factory buildHttpDataSourceFactory(DefaultBandwidthMeter bandwidthMeter) {
+        if (httpDataSourceFactoryProvider != null) {
+            return httpDataSourceFactoryProvider.createFactory(userAgent, bandwidthMeter);
+        }
         return new DefaultHttpDataSourceFactory(userAgent, bandwidthMeter);
     }
 
@@ -268,60 +961,36 @@ public class VideoPlayer {
         return false;
     }
 
-    private TrackGroupArray getTrackGroupArray(int type) {
-        MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentMappedTrackInfo();
-        if (mappedTrackInfo != null) {
-            for (int i = 0; i < mappedTrackInfo.length; i++) {
-                TrackGroupArray trackGroups = mappedTrackInfo.getTrackGroups(i);
-                if (trackGroups.length != 0) {
-                    if (player.getRendererType(i) == type) {
-                        return trackGroups;
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
     private TrackSelection getSelectedTrack(int type) {
+        int rendererIndex = trackCatalogue.getRendererIndex(type);
         TrackSelectionArray trackSelectionArray = player.getCurrentTrackSelections();
-        if (trackSelectionArray != null) {
-            for (int i = 0; i < trackSelectionArray.length; i++) {
-                TrackSelection trackGroup = trackSelectionArray.get(i);
-                if (player.getRendererType(i) == type) {
-                    return trackGroup;
-                }
-            }
+        if (rendererIndex >= 0 && trackSelectionArray != null && rendererIndex < trackSelectionArray.length) {
+            return trackSelectionArray.get(rendererIndex);
         }
         return null;
     }
 
-    private int getTrackId(int type) {
-        MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentMappedTrackInfo();
-        if (mappedTrackInfo != null) {
-            for (int i = 0; i < mappedTrackInfo.length; i++) {
-                TrackGroupArray trackGroups = mappedTrackInfo.getTrackGroups(i);
-                if (trackGroups.length != 0) {
-                    if (player.getRendererType(i) == type) {
-                        return i;
-                    }
-                }
-            }
-        }
-        return -1;
+    /**
+     * Returns the catalogue of the current stream's tracks, rebuilt whenever the tracks change.
+     */
+    public TrackCatalogue getTrackCatalogue() {
+        return trackCatalogue;
     }
 
     public void initSelection(int trackType, boolean enabled, String search) {
         if (trackSelector != null) {
-            int trackId = getTrackId(trackType);
-            Pair info = null;
+            int trackId = trackCatalogue.getRendererIndex(trackType);
+            if (trackId < 0) {
+                return;
+            }
+            TrackCatalogue.Track track = null;
             if (enabled) {
-                info = getSelectionId(trackType, search);
+                track = trackCatalogue.findByLanguage(trackType, search);
             }
-            if (info != null && (int)info.first >= 0 && (int)info.second >= 0) {
-                MappingTrackSelector.SelectionOverride override = new MappingTrackSelector.SelectionOverride(FIXED_FACTORY, (int)info.first, (int)info.second);
+            if (track != null) {
+                MappingTrackSelector.SelectionOverride override = new MappingTrackSelector.SelectionOverride(FIXED_FACTORY, track.groupIndex, track.trackIndex);
                 trackSelector.setRendererDisabled(trackId, false);
-                trackSelector.setSelectionOverride(trackId, trackSelector.getCurrentMappedTrackInfo().getTrackGroups(trackId), override);
+                trackSelector.setSelectionOverride(trackId, trackCatalogue.getTrackGroups(trackType), override);
             } else {
                 trackSelector.setRendererDisabled(trackId, true);
                 trackSelector.clearSelectionOverrides(trackId);
@@ -329,59 +998,25 @@ public class VideoPlayer {
         }
     }
 
-    private Pair getSelectionId(int trackId, String search) {
-        TrackGroupArray trackGroupArray = trackSelector.getCurrentMappedTrackInfo().getTrackGroups(trackId);
-        if (trackGroupArray != null) {
-            for (int groupIndex = 0; groupIndex < trackGroupArray.length; groupIndex++) {
-                TrackGroup trackGroup = trackGroupArray.get(groupIndex);
-                for (int trackIndex = 0; trackIndex < trackGroup.length; trackIndex++) {
-                    String found = buildLanguageString(trackGroup.getFormat(trackIndex));
-                    if ((TextUtils.isEmpty(search) && TextUtils.isEmpty(found))
-                            || search.equals(found)) {
-                        return Pair.create(groupIndex, trackIndex);
-                    }
+    private static DrmInitData findDrmInitData(TrackGroupArray trackGroups) {
+        for (int groupIndex = 0; groupIndex < trackGroups.length; groupIndex++) {
+            TrackGroup trackGroup = trackGroups.get(groupIndex);
+            for (int trackIndex = 0; trackIndex < trackGroup.length; trackIndex++) {
+                DrmInitData drmInitData = trackGroup.getFormat(trackIndex).drmInitData;
+                if (drmInitData != null) {
+                    return drmInitData;
                 }
             }
         }
         return null;
     }
 
-    private static String buildLanguageString(Format format) {
-        return TextUtils.isEmpty(format.language) || "und".equals(format.language) ? ""
-                : format.language;
-    }
-
     public List<String> getAvailableLanguages() {
-        ArrayList<String> audios = new ArrayList<String>();
-        if (isPlayerReady()) {
-            TrackGroupArray trackGroupArray = getTrackGroupArray(C.TRACK_TYPE_AUDIO);
-            if (trackGroupArray != null) {
-                for (int i = 0; i < trackGroupArray.length; i++) {
-                    TrackGroup trackGroup = trackGroupArray.get(i);
-                    for (int trackIndex = 0; trackIndex < trackGroup.length; trackIndex++) {
-                        audios.add(buildLanguageString(trackGroup.getFormat(trackIndex)));
-                    }
-                }
-            }
-        }
-
-        return audios;
+        return trackCatalogue.getLanguages(C.TRACK_TYPE_AUDIO);
     }
 
     public List<String> getAvailableSubtitles() {
-        ArrayList<String> subs = new ArrayList<String>();
-        if (isPlayerReady()) {
-            TrackGroupArray trackGroupArray = getTrackGroupArray(C.TRACK_TYPE_TEXT);
-            if (trackGroupArray != null) {
-                for (int i = 0; i < trackGroupArray.length; i++) {
-                    TrackGroup trackGroup = trackGroupArray.get(i);
-                    for (int trackIndex = 0; trackIndex < trackGroup.length; trackIndex++) {
-                        subs.add(buildLanguageString(trackGroup.getFormat(trackIndex)));
-                    }
-                }
-            }
-        }
-        return subs;
+        return trackCatalogue.getLanguages(C.TRACK_TYPE_TEXT);
     }
 
     public int getSelectedAudio() {
@@ -406,7 +1041,8 @@ public class VideoPlayer {
 
     public long getCurrentPosition() {
         if (isPlayerReady()) {
-            return player.getCurrentPosition();
+            long pendingPositionMs = seekScheduler.getPendingPosition();
+            return pendingPositionMs != C.TIME_UNSET ? pendingPositionMs : player.getCurrentPosition();
         }
         return -1;
     }
@@ -425,20 +1061,119 @@ public class VideoPlayer {
         return -1;
     }
 
+    public boolean isLoading() {
+        return isPlayerReady() && player.isLoading();
+    }
+
+    /**
+     * Returns the bandwidth estimate shared by all players in bits per second, or
+     * {@link BandwidthMeter#NO_ESTIMATE}.
+     */
+    public long getBitrateEstimate() {
+        return BANDWIDTH_METER.getBitrateEstimate();
+    }
+
     public void stop() {
-        if (isPlayerReady())
+        if (isPlayerReady()) {
+            saveResumePosition();
             player.stop();
+        }
     }
 
     public void setPlayWhenReady(boolean playWhenReady) {
         if (isPlayerReady()) {
+            if (!playWhenReady) {
+                saveResumePosition();
+                resumePositionStore.flush();
+                saveBandwidthEstimate();
+            }
             player.setPlayWhenReady(playWhenReady);
         }
     }
 
     public void seekTo(long seekTo) {
+        seekTo(seekTo, true);
+    }
+
+    /**
+     * Seeks to {@code positionMs}. Seeks that are not final, such as the updates of a seek bar being
+     * dragged, are snapped and coalesced by the {@link SeekScheduler}.
+     */
+    public void seekTo(long positionMs, boolean isFinal) {
         if (isPlayerReady()) {
-            player.seekTo(seekTo);
+            seekScheduler.seekTo(positionMs, isFinal);
+        }
+    }
+
+    private final class PlayerEventListener implements ExoPlayer.EventListener {
+
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest) {
+            if (playlist != null && manifest instanceof Object[]) {
+                // A concatenated playlist reports the manifest of each of its items, or null for
+                // items not prepared yet.
+                Object[] manifests = (Object[]) manifest;
+                for (int i = 0; i < manifests.length && i < playlist.size(); i++) {
+                    if (manifests[i] == null) {
+                        continue;
+                    }
+                    ManifestCache.getInstance().onManifestLoaded(Uri.parse(playlist.get(i)), manifests[i]);
+                }
+            } else if (currentUri != null) {
+                ManifestCache.getInstance().onManifestLoaded(currentUri, manifest);
+            }
+            updatePlaylistIndex();
+        }
+
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+            trackCatalogue = TrackCatalogue.build(trackSelector.getCurrentMappedTrackInfo(), player);
+            if (drmSessionManager != null && currentUri != null) {
+                DrmInitData drmInitData = findDrmInitData(trackGroups);
+                if (drmInitData != null) {
+                    DrmLicenseStore.getInstance(mContext).onContentLoaded(drmUuid, drmInitData, drmLicenseUrl, keyRequestProperties, buildHttpDataSourceFactory(false));
+                }
+            }
+        }
+
+        @Override
+        public void onLoadingChanged(boolean isLoading) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            mainHandler.removeCallbacks(savePlaybackStateRunnable);
+            if (playWhenReady && playbackState == ExoPlayer.STATE_READY) {
+                mainHandler.postDelayed(savePlaybackStateRunnable, RESUME_SAVE_INTERVAL_MS);
+            } else if (playbackState == ExoPlayer.STATE_ENDED && playlist == null && currentUri != null) {
+                resumePositionStore.remove(currentUri.toString());
+            }
+            if (playbackState == ExoPlayer.STATE_READY) {
+                // Neighbours are preloaded only once the current stream no longer competes for bandwidth.
+                updateZapNeighbours();
+            }
+        }
+
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+            if (error.type != ExoPlaybackException.TYPE_SOURCE) {
+                return;
+            }
+            // A probed type may be stale, so the next prepare probes the stream again.
+            ContentTypeProbe contentTypeProbe = ContentTypeProbe.getInstance(mContext);
+            if (playlist != null) {
+                for (String stream : playlist) {
+                    contentTypeProbe.invalidate(Uri.parse(stream));
+                }
+            } else if (currentUri != null) {
+                contentTypeProbe.invalidate(currentUri);
+            }
+        }
+
+        @Override
+        public void onPositionDiscontinuity() {
+            updatePlaylistIndex();
         }
     }
 }
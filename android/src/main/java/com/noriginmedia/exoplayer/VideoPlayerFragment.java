@@ -12,8 +12,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.support.v4.app.Fragment;
 import android.text.TextUtils;
 import android.util.Log;
@@ -49,7 +47,10 @@ public class VideoPlayerFragment extends Fragment implements ExoPlayer.EventList
     private static Context mContext;
     private static Activity mActivity;
 
-    private int mToBeSeeked;
+    /**
+     * The position to seek to once prepared, or -1 to start where {@link VideoPlayer} resumes.
+     */
+    private int mToBeSeeked = -1;
     private String contentType;
 
     private VideoPlayer mVideoPlayer;
@@ -259,9 +260,8 @@ public class VideoPlayerFragment extends Fragment implements ExoPlayer.EventList
     public void setVideoData(String url) {
         this.url = url;
             Log.i(LOG_TAG, " --- setVideoData --- [vod = "
-                    + url + "] position:"
-                    + 0);
-            mToBeSeeked = 0;
+                    + url + "]");
+            mToBeSeeked = -1;
     }
 
 
@@ -309,7 +309,6 @@ public class VideoPlayerFragment extends Fragment implements ExoPlayer.EventList
     public boolean cmdPlay() {
         if (mVideoPlayer.isPlayerReady() && !mVideoPlayer.isPlaying()) {
             mVideoPlayer.setPlayWhenReady(true);
-            triggerOnPositionChanged();
         }
         return false;
     }
@@ -331,8 +330,10 @@ public class VideoPlayerFragment extends Fragment implements ExoPlayer.EventList
 
                 Log.d(LOG_TAG, "_-_ onPlayerSeekToPosition: duration:"
                         + duration);
-                mVideoPlayer.seekTo(position);
-                showLoader(true);
+                mVideoPlayer.seekTo(position, isFinal);
+                if (isFinal) {
+                    showLoader(true);
+                }
             } else {
                 mToBeSeeked = position;
             }
@@ -371,10 +372,7 @@ public class VideoPlayerFragment extends Fragment implements ExoPlayer.EventList
                 Log.d(LOG_TAG, "_-_ seeking to the: " + mToBeSeeked);
             }
 
-
-            triggerOnPositionChanged();
-
-            mToBeSeeked = 0;
+            mToBeSeeked = -1;
             initPlayerPrepared = true;
         }
     }
@@ -394,7 +392,6 @@ public class VideoPlayerFragment extends Fragment implements ExoPlayer.EventList
             case ExoPlayer.STATE_READY:
                 showLoader(false);
                 initPlayerPrepared();
-                triggerOnPositionChanged();
                 if (playWhenReady) {
                     mPlayerState = PLAYER_STATE.playing;
                 } else {
@@ -461,25 +458,6 @@ public class VideoPlayerFragment extends Fragment implements ExoPlayer.EventList
         return (int)mVideoPlayer.getCurrentPosition();
     }
 
-    private static final int START_SENDING_ONPOSTIONCHANGED = 1;
-
-    private void triggerOnPositionChanged() {
-        Message msg = mHandler.obtainMessage(START_SENDING_ONPOSTIONCHANGED);
-        mHandler.removeMessages(START_SENDING_ONPOSTIONCHANGED);
-        mHandler.sendMessageDelayed(msg, 1000);
-    }
-
-    private Handler mHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            if (mPlayerState == PLAYER_STATE.playing || mPlayerState == PLAYER_STATE.paused) {
-                Message newMsg = mHandler.obtainMessage(START_SENDING_ONPOSTIONCHANGED);
-                mHandler.removeMessages(START_SENDING_ONPOSTIONCHANGED);
-                sendMessageDelayed(newMsg, 1000);
-            }
-        }
-    };
-
     public PLAYER_STATE getPlayerState() {
         return this.mPlayerState;
     }
@@ -0,0 +1,131 @@
+package com.noriginmedia.react;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.uimanager.events.RCTEventEmitter;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sends the events of a view to JS in batches, at most one per frame, instead of one bridge call
+ * per event.
+ * <p>
+ * Events of the same type queued within a frame are coalesced, keeping the latest. High-frequency
+ * types such as {@link #TYPE_PROGRESS} are also throttled to one per
+ * {@link #setThrottleInterval throttle interval}, and wait for the interval to pass if they come
+ * earlier. Each batch is sent as a {@link #EVENT_NAME} event with an {@code events} array, in
+ * which every event carries its {@code type}.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class BridgeEventBatcher implements Choreographer.FrameCallback {
+
+	public static final String EVENT_NAME = "topVideoEvents";
+	public static final String REGISTRATION_NAME = "onVideoEvents";
+
+	public static final String TYPE_PLAYER_STATE = "playerState";
+	public static final String TYPE_PLAYLIST_ITEM = "playlistItem";
+	public static final String TYPE_LIVE_LATENCY = "liveLatency";
+	public static final String TYPE_PROGRESS = "progress";
+	public static final String TYPE_BUFFER = "buffer";
+	public static final String TYPE_BANDWIDTH = "bandwidth";
+	public static final String TYPE_ERROR = "error";
+
+	public static final int DEFAULT_THROTTLE_MS = 250;
+
+	private static final Set<String> THROTTLED_TYPES = new HashSet<>(Arrays.asList(
+		TYPE_PROGRESS, TYPE_BUFFER, TYPE_BANDWIDTH));
+
+	private final View view;
+	private final Choreographer choreographer;
+	private final Map<String, WritableMap> pendingEvents;
+	private final Map<String, Long> sentAtMs;
+
+	private int throttleMs = DEFAULT_THROTTLE_MS;
+	private boolean frameScheduled;
+
+	public BridgeEventBatcher(View view) {
+		this.view = view;
+		choreographer = Choreographer.getInstance();
+		pendingEvents = new LinkedHashMap<>();
+		sentAtMs = new HashMap<>();
+	}
+
+	/**
+	 * Sets how often throttled events are sent at most, or 0 to send them every frame.
+	 */
+	public void setThrottleInterval(int throttleMs) {
+		this.throttleMs = Math.max(0, throttleMs);
+	}
+
+	public int getThrottleInterval() {
+		return throttleMs;
+	}
+
+	/**
+	 * Queues {@code event} for the next batch, replacing a queued event of the same type.
+	 */
+	public void dispatch(String type, WritableMap event) {
+		event.putString("type", type);
+		pendingEvents.put(type, event);
+		if (!frameScheduled) {
+			frameScheduled = true;
+			choreographer.postFrameCallback(this);
+		}
+	}
+
+	/**
+	 * Drops the queued events.
+	 */
+	public void clear() {
+		choreographer.removeFrameCallback(this);
+		frameScheduled = false;
+		pendingEvents.clear();
+		sentAtMs.clear();
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		frameScheduled = false;
+		long nowMs = SystemClock.uptimeMillis();
+		long nextDueMs = Long.MAX_VALUE;
+		WritableArray events = Arguments.createArray();
+		Iterator<Map.Entry<String, WritableMap>> iterator = pendingEvents.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, WritableMap> entry = iterator.next();
+			String type = entry.getKey();
+			if (THROTTLED_TYPES.contains(type)) {
+				Long lastSentAtMs = sentAtMs.get(type);
+				if (lastSentAtMs != null && nowMs - lastSentAtMs < throttleMs) {
+					nextDueMs = Math.min(nextDueMs, lastSentAtMs + throttleMs);
+					continue;
+				}
+				sentAtMs.put(type, nowMs);
+			}
+			events.pushMap(entry.getValue());
+			iterator.remove();
+		}
+		if (events.size() > 0) {
+			WritableMap batch = Arguments.createMap();
+			batch.putArray("events", events);
+			ReactContext reactContext = (ReactContext) view.getContext();
+			reactContext.getJSModule(RCTEventEmitter.class).receiveEvent(view.getId(), EVENT_NAME, batch);
+		}
+		if (!pendingEvents.isEmpty()) {
+			frameScheduled = true;
+			choreographer.postFrameCallbackDelayed(this, Math.max(0, nextDueMs - nowMs));
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.noriginmedia.react;
+
+import com.google.android.exoplayer2.C;
+import com.noriginmedia.exoplayer.BufferingProfile;
+import com.noriginmedia.exoplayer.DecoderBudget;
+import com.noriginmedia.exoplayer.VideoPlayer;
+
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Owns the {@link VideoPlayer} of each {@link ReactVideoView}, keyed by view tag, and keeps the
+ * number of views decoding within the {@link DecoderBudget}.
+ * <p>
+ * A view whose source is set while the budget is used up is parked until a slot frees up, and so
+ * is a playing view whose slot is revoked. A parked view holds no player, so it takes no decoder,
+ * memory or CPU. A view parked while playing keeps a copy of its last frame on screen as a frozen
+ * poster (API 24 and up), taken before its player is released. Once granted a slot, the view
+ * prepares its source again and VOD resumes where it was parked.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class PlayerRegistry {
+
+	private static final String LOG_TAG = PlayerRegistry.class.getSimpleName();
+
+	public static final String PLAYER_STATE_PARKED = "parked";
+
+	private final SparseArray<Entry> mEntries = new SparseArray<>();
+
+	/**
+	 * Returns the player of {@code view}, creating it on first use.
+	 */
+	public VideoPlayer get(ReactVideoView view) {
+		return obtain(view).mVideoPlayer;
+	}
+
+	/**
+	 * Plays {@code src} in {@code view} once it holds a decoder, replacing its playlist, or stops
+	 * it if {@code src} is null and no playlist is playing.
+	 */
+	public void setSource(ReactVideoView view, String src) {
+		Entry entry = obtain(view);
+		if (src == null && entry.mSrc == null) {
+			return;
+		}
+		entry.mSrc = src;
+		if (src != null) {
+			entry.mPlaylist = null;
+		}
+		entry.start();
+	}
+
+	/**
+	 * Plays {@code streams} in {@code view} once it holds a decoder, replacing its source, or stops
+	 * it if {@code streams} is null and no source is playing.
+	 */
+	public void setPlaylist(ReactVideoView view, List<String> streams) {
+		Entry entry = obtain(view);
+		if (streams == null && entry.mPlaylist == null) {
+			return;
+		}
+		entry.mPlaylist = streams;
+		entry.mPlaylistIndex = 0;
+		if (streams != null) {
+			entry.mSrc = null;
+		}
+		entry.start();
+	}
+
+	/**
+	 * Plays the source or playlist of {@code view} with the given DRM configuration, or without
+	 * DRM if {@code scheme} is null. A view already playing prepares its source again.
+	 *
+	 * @param keyRequestProperties License request headers as alternating names and values.
+	 */
+	public void setDrm(ReactVideoView view, String scheme, String licenseUrl, String[] keyRequestProperties) {
+		Entry entry = obtain(view);
+		if (TextUtils.equals(scheme, entry.mDrmScheme) && TextUtils.equals(licenseUrl, entry.mDrmLicenseUrl)
+			&& Arrays.equals(keyRequestProperties, entry.mKeyRequestProperties)) {
+			return;
+		}
+		entry.mDrmScheme = scheme;
+		entry.mDrmLicenseUrl = licenseUrl;
+		entry.mKeyRequestProperties = keyRequestProperties;
+		if ((entry.mSrc != null || entry.mPlaylist != null) && DecoderBudget.getInstance().isActive(entry)) {
+			// The DRM configuration only takes effect when the player is created.
+			if (entry.mPlaylist != null && entry.mVideoPlayer.getPlaylistIndex() != C.INDEX_UNSET) {
+				entry.mPlaylistIndex = entry.mVideoPlayer.getPlaylistIndex();
+			}
+			entry.mPendingPark = null;
+			entry.mVideoPlayer.releasePlayer();
+			entry.prepare();
+		}
+	}
+
+	/**
+	 * Sets the named buffering profile of {@code view}, which its buffer config is applied on top of.
+	 */
+	public void setBufferingProfile(ReactVideoView view, BufferingProfile bufferingProfile) {
+		Entry entry = obtain(view);
+		entry.mBaseBufferingProfile = bufferingProfile;
+		entry.applyBufferingProfile();
+	}
+
+	/**
+	 * Sets the custom buffering thresholds of {@code view}, or clears them if {@code thresholds} is
+	 * null.
+	 *
+	 * @param thresholds The minimum and maximum buffer, the buffer for playback and after a rebuffer in
+	 *                   milliseconds and the segment size in bytes. Those set to
+	 *                   {@link C#LENGTH_UNSET} are derived from the named buffering profile.
+	 */
+	public void setBufferConfig(ReactVideoView view, int[] thresholds) {
+		Entry entry = obtain(view);
+		entry.mBufferConfig = thresholds;
+		entry.applyBufferingProfile();
+	}
+
+	/**
+	 * Releases the player of a view that is dropped and frees its decoder for the next view.
+	 */
+	public void remove(ReactVideoView view) {
+		Entry entry = mEntries.get(view.getId());
+		if (entry != null) {
+			mEntries.remove(view.getId());
+			DecoderBudget.getInstance().release(entry);
+			entry.mPendingPark = null;
+			entry.mVideoPlayer.releasePlayer();
+		}
+	}
+
+	private Entry obtain(ReactVideoView view) {
+		Entry entry = mEntries.get(view.getId());
+		if (entry == null) {
+			entry = new Entry(view);
+			mEntries.put(view.getId(), entry);
+		}
+		return entry;
+	}
+
+	private static final class Entry implements DecoderBudget.Client {
+
+		private final ReactVideoView mView;
+		private final VideoPlayer mVideoPlayer;
+
+		private String mSrc;
+		private List<String> mPlaylist;
+		private int mPlaylistIndex;
+		private String mDrmScheme;
+		private String mDrmLicenseUrl;
+		private String[] mKeyRequestProperties;
+		private Runnable mPendingPark;
+		private BufferingProfile mBaseBufferingProfile = BufferingProfile.DEFAULT;
+		private int[] mBufferConfig;
+
+		private Entry(ReactVideoView view) {
+			mView = view;
+			mVideoPlayer = new VideoPlayer(view, view.getContext());
+			mVideoPlayer.setPlaylistListener(view);
+			mVideoPlayer.setLiveLatencyListener(view);
+			view.setVideoPlayer(mVideoPlayer);
+		}
+
+		/**
+		 * Gives the player the buffer config applied on top of the named profile, or the named
+		 * profile alone if there is no config or it contradicts itself.
+		 */
+		private void applyBufferingProfile() {
+			BufferingProfile profile = mBaseBufferingProfile;
+			if (mBufferConfig != null) {
+				try {
+					profile = BufferingProfile.custom(mBaseBufferingProfile, mBufferConfig[0], mBufferConfig[1],
+						mBufferConfig[2], mBufferConfig[3], mBufferConfig[4]);
+				} catch (IllegalArgumentException e) {
+					Log.w(LOG_TAG, "Ignoring bufferConfig, using the " + mBaseBufferingProfile.name + " profile", e);
+				}
+			}
+			mVideoPlayer.setBufferingProfile(profile);
+		}
+
+		private void start() {
+			if (mSrc == null && mPlaylist == null) {
+				DecoderBudget.getInstance().release(this);
+				mView.clearFrozenFrame();
+				if (mPendingPark != null) {
+					mPendingPark = null;
+					mVideoPlayer.releasePlayer();
+				}
+				mVideoPlayer.stop();
+				return;
+			}
+			if (DecoderBudget.getInstance().request(this)) {
+				prepare();
+			} else {
+				park();
+			}
+		}
+
+		private void prepare() {
+			// A park still waiting for its frame keeps the player, which is prepared again
+			mPendingPark = null;
+			mVideoPlayer.initializePlayer(mView, mDrmScheme, mDrmLicenseUrl, mKeyRequestProperties);
+			if (mPlaylist != null) {
+				mVideoPlayer.preparePlaylist(mPlaylist, mPlaylistIndex);
+			} else {
+				mVideoPlayer.preparePlayer(mSrc);
+			}
+		}
+
+		private void park() {
+			if (mPlaylist != null && mVideoPlayer.getPlaylistIndex() != C.INDEX_UNSET) {
+				mPlaylistIndex = mVideoPlayer.getPlaylistIndex();
+			}
+			// Keeps the last frame on screen, then saves the resume position and hands the player back
+			mPendingPark = new Runnable() {
+				@Override
+				public void run() {
+					if (mPendingPark == this) {
+						mPendingPark = null;
+						mVideoPlayer.releasePlayer();
+						mView.notifyPlayerStateChanged(PLAYER_STATE_PARKED);
+					}
+				}
+			};
+			mView.freezeFrame(mPendingPark);
+		}
+
+		@Override
+		public void onDecoderGranted() {
+			prepare();
+		}
+
+		@Override
+		public void onDecoderRevoked() {
+			park();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.noriginmedia.react;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.util.Util;
+import com.noriginmedia.exoplayer.DecoderBudget;
+import com.noriginmedia.exoplayer.DownloadManager;
+import com.noriginmedia.exoplayer.ManifestCache;
+import com.noriginmedia.exoplayer.MediaCache;
+import com.noriginmedia.exoplayer.PlaybackClock;
+import com.noriginmedia.exoplayer.PlayerPool;
+import com.noriginmedia.exoplayer.PooledHttpClient;
+import com.noriginmedia.exoplayer.SharedDrmSessionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide player settings and helpers that are not tied to a single video view.
+ */
+public class ReactVideoModule extends ReactContextBaseJavaModule implements DownloadManager.Listener {
+
+	public static final String NAME = "NMVideo";
+	public static final String EVENT_DOWNLOAD = "NMVideoDownload";
+
+	public ReactVideoModule(ReactApplicationContext reactContext) {
+		super(reactContext);
+		DownloadManager.getInstance(reactContext).addListener(this);
+	}
+
+	@Override
+	public void onCatalystInstanceDestroy() {
+		DownloadManager.getInstance(getReactApplicationContext()).removeListener(this);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@ReactMethod
+	public void configurePlayerPool(final int maxSize, final int idleTimeoutMs) {
+		UiThreadUtil.runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				PlayerPool.getInstance(getReactApplicationContext()).configure(maxSize, idleTimeoutMs);
+			}
+		});
+	}
+
+	@ReactMethod
+	public void prewarmPlayers(final int count) {
+		UiThreadUtil.runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				PlayerPool.getInstance(getReactApplicationContext()).prewarm(count);
+			}
+		});
+	}
+
+	@ReactMethod
+	public void setMaxActiveDecoders(final int maxActive) {
+		UiThreadUtil.runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				DecoderBudget.getInstance().setMaxActive(maxActive);
+			}
+		});
+	}
+
+	@ReactMethod
+	public void prefetchManifests(ReadableArray urls) {
+		List<String> uris = new ArrayList<>();
+		for (int i = 0; i < urls.size(); i++) {
+			uris.add(urls.getString(i));
+		}
+		String userAgent = Util.getUserAgent(getReactApplicationContext(), "ExoVideoPlayer");
+		ManifestCache.getInstance().prefetch(uris, new DefaultDataSourceFactory(getReactApplicationContext(),
+				null, PooledHttpClient.getInstance().createFactory(userAgent, null)));
+	}
+
+	@ReactMethod
+	public void setManifestCacheTtl(int vodTtlMs, int liveTtlMs) {
+		ManifestCache.getInstance().setTtl(vodTtlMs, liveTtlMs);
+	}
+
+	@ReactMethod
+	public void setProgressInterval(final int intervalMs) {
+		UiThreadUtil.runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				PlaybackClock.getInstance().setInterval(intervalMs);
+			}
+		});
+	}
+
+	@ReactMethod
+	public void getMediaCacheStats(Promise promise) {
+		MediaCache mediaCache = MediaCache.getInstance();
+		if (mediaCache == null) {
+			promise.resolve(null);
+			return;
+		}
+		WritableMap stats = Arguments.createMap();
+		stats.putDouble("maxBytes", mediaCache.getMaxBytes());
+		stats.putDouble("cachedBytes", mediaCache.getCacheSpace());
+		stats.putDouble("hitBytes", mediaCache.getHitBytes());
+		stats.putDouble("missBytes", mediaCache.getMissBytes());
+		stats.putDouble("evictions", mediaCache.getEvictionCount());
+		promise.resolve(stats);
+	}
+
+	@ReactMethod
+	public void resetMediaCacheStats() {
+		MediaCache mediaCache = MediaCache.getInstance();
+		if (mediaCache != null) {
+			mediaCache.resetCounters();
+		}
+	}
+
+	@ReactMethod
+	public void configureHttp(int maxIdleConnections, int keepAliveMs, int maxConnectionsPerHost, int dnsTtlMs) {
+		PooledHttpClient.getInstance().configure(maxIdleConnections, keepAliveMs, maxConnectionsPerHost, dnsTtlMs);
+	}
+
+	@ReactMethod
+	public void configureDrmSessions(int maxOpenSessions, int idleTimeoutMs) {
+		SharedDrmSessionManager.getInstance(getReactApplicationContext()).configure(maxOpenSessions, idleTimeoutMs);
+	}
+
+	@ReactMethod
+	public void downloadStream(String url, ReadableMap options) {
+		int maxVideoBitrate = options.hasKey("maxVideoBitrate") && !options.isNull("maxVideoBitrate")
+			? options.getInt("maxVideoBitrate") : Integer.MAX_VALUE;
+		String drmScheme = options.hasKey("drmScheme") ? options.getString("drmScheme") : null;
+		String drmLicenseUrl = options.hasKey("drmLicenseUrl") ? options.getString("drmLicenseUrl") : null;
+		DownloadManager.getInstance(getReactApplicationContext())
+			.download(url, maxVideoBitrate, drmScheme, drmLicenseUrl, getKeyRequestProperties(options));
+	}
+
+	/**
+	 * Returns the {@code keyRequestProperties} map of {@code options} as alternating names and
+	 * values, or null if it has none.
+	 */
+	static String[] getKeyRequestProperties(ReadableMap options) {
+		if (!options.hasKey("keyRequestProperties") || options.isNull("keyRequestProperties")) {
+			return null;
+		}
+		ReadableMap properties = options.getMap("keyRequestProperties");
+		List<String> values = new ArrayList<>();
+		ReadableMapKeySetIterator iterator = properties.keySetIterator();
+		while (iterator.hasNextKey()) {
+			String key = iterator.nextKey();
+			values.add(key);
+			values.add(properties.getString(key));
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	@ReactMethod
+	public void removeDownload(String url) {
+		DownloadManager.getInstance(getReactApplicationContext()).remove(url);
+	}
+
+	@ReactMethod
+	public void getDownloads(Promise promise) {
+		WritableArray downloads = Arguments.createArray();
+		for (DownloadManager.Download download : DownloadManager.getInstance(getReactApplicationContext()).getDownloads()) {
+			downloads.pushMap(toMap(download));
+		}
+		promise.resolve(downloads);
+	}
+
+	@ReactMethod
+	public void setDownloadQuota(double quotaBytes) {
+		DownloadManager.getInstance(getReactApplicationContext()).setQuota((long) quotaBytes);
+	}
+
+	@ReactMethod
+	public void setMaxParallelDownloads(int maxParallelDownloads) {
+		DownloadManager.getInstance(getReactApplicationContext()).setMaxParallelDownloads(maxParallelDownloads);
+	}
+
+	@Override
+	public void onDownloadChanged(DownloadManager.Download download) {
+		if (getReactApplicationContext().hasActiveCatalystInstance()) {
+			getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+				.emit(EVENT_DOWNLOAD, toMap(download));
+		}
+	}
+
+	private static WritableMap toMap(DownloadManager.Download download) {
+		WritableMap map = Arguments.createMap();
+		map.putString("url", download.uri);
+		map.putString("state", getStateName(download.state));
+		map.putInt("downloadedSegments", download.downloadedSegments);
+		map.putInt("segmentCount", download.segmentCount);
+		map.putDouble("downloadedBytes", download.downloadedBytes);
+		if (download.error != null) {
+			map.putString("error", download.error);
+		}
+		return map;
+	}
+
+	private static String getStateName(int state) {
+		switch (state) {
+			case DownloadManager.STATE_QUEUED:
+				return "queued";
+			case DownloadManager.STATE_DOWNLOADING:
+				return "downloading";
+			case DownloadManager.STATE_COMPLETED:
+				return "completed";
+			case DownloadManager.STATE_FAILED:
+				return "failed";
+			default:
+				return "removed";
+		}
+	}
+}
@@ -8,24 +8,55 @@ import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 
 import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.uimanager.ThemedReactContext;
-import com.facebook.react.uimanager.events.RCTEventEmitter;
 import com.noriginmedia.exoplayer.ExoPlayerView;
+import com.noriginmedia.exoplayer.LiveEdgeTracker;
+import com.noriginmedia.exoplayer.PlaybackClock;
+import com.noriginmedia.exoplayer.VideoPlayer;
 import com.noriginmedia.exoplayer.VideoPlayerFragment;
 
 import android.util.Log;
 import android.view.View;
 
-public class ReactVideoView extends ExoPlayerView implements ExoPlayer.EventListener {
+public class ReactVideoView extends ExoPlayerView implements ExoPlayer.EventListener,
+		VideoPlayer.PlaylistListener, LiveEdgeTracker.Listener, PlaybackClock.Listener {
 	private final String LOG_TAG = ReactVideoView.class.getSimpleName();
 
+	private final BridgeEventBatcher mEventBatcher;
+	private VideoPlayer mVideoPlayer;
+	private VideoPlayerFragment.PLAYER_STATE mPlayerState = VideoPlayerFragment.PLAYER_STATE.idle;
+
+	private long mLastPosition = -1;
+	private long mLastDuration = -1;
+	private long mLastBufferedPercentage = -1;
+	private long mLastBitrate = -1;
+
     public ReactVideoView(ThemedReactContext themedReactContext) {
         super(themedReactContext);
+        mEventBatcher = new BridgeEventBatcher(this);
     }
 
+	public void setVideoPlayer(VideoPlayer videoPlayer) {
+		mVideoPlayer = videoPlayer;
+	}
+
+	/**
+	 * Sets how often (ms) progress, buffer and bandwidth events are sent at most.
+	 */
+	public void setEventThrottleInterval(int throttleMs) {
+		mEventBatcher.setThrottleInterval(throttleMs);
+	}
+
+	/**
+	 * Stops sampling the player and drops the events not sent yet.
+	 */
+	public void release() {
+		PlaybackClock.getInstance().unregister(this);
+		mEventBatcher.clear();
+	}
+
 	private void showLoader(boolean on) {
 		//TODO
 	}
@@ -33,17 +64,71 @@ public class ReactVideoView extends ExoPlayerView implements ExoPlayer.EventList
 	private void initPlayerPrepared() {
 	}
 
-	private void triggerOnPositionChanged() {
+	@Override
+	public void onPlaybackProgress(long positionMs, long durationMs, long bufferedPercentage) {
+		triggerOnPositionChanged(positionMs, durationMs);
+		triggerOnBufferChanged(bufferedPercentage, false);
+		triggerOnBandwidthChanged();
+	}
 
+	private void triggerOnPositionChanged(long position, long duration) {
+		if (position == mLastPosition && duration == mLastDuration) {
+			return;
+		}
+		mLastPosition = position;
+		mLastDuration = duration;
+		WritableMap event = Arguments.createMap();
+		event.putDouble("currentTime", position);
+		event.putDouble("duration", duration);
+		mEventBatcher.dispatch(BridgeEventBatcher.TYPE_PROGRESS, event);
 	}
 
+	private void triggerOnBufferChanged(long bufferedPercentage, boolean isLoadingChanged) {
+		if (mVideoPlayer == null) {
+			return;
+		}
+		if (!isLoadingChanged && bufferedPercentage == mLastBufferedPercentage) {
+			return;
+		}
+		mLastBufferedPercentage = bufferedPercentage;
+		WritableMap event = Arguments.createMap();
+		event.putBoolean("isLoading", mVideoPlayer.isLoading());
+		event.putDouble("bufferedPercentage", bufferedPercentage);
+		mEventBatcher.dispatch(BridgeEventBatcher.TYPE_BUFFER, event);
+	}
+
+	private void triggerOnBandwidthChanged() {
+		if (mVideoPlayer == null) {
+			return;
+		}
+		long bitrate = mVideoPlayer.getBitrateEstimate();
+		if (bitrate == mLastBitrate) {
+			return;
+		}
+		mLastBitrate = bitrate;
+		WritableMap event = Arguments.createMap();
+		event.putDouble("bitrate", bitrate);
+		mEventBatcher.dispatch(BridgeEventBatcher.TYPE_BANDWIDTH, event);
+	}
 
-	//TODO add methods for passing to react-native the states of the player
 	public void notifyPlayerStateChanged(String playerState) {
 		WritableMap event = Arguments.createMap();
 		event.putString("playerState", playerState);
-		ReactContext reactContext = (ReactContext) getContext();
-		reactContext.getJSModule(RCTEventEmitter.class).receiveEvent(getId(), "topChange", event);
+		mEventBatcher.dispatch(BridgeEventBatcher.TYPE_PLAYER_STATE, event);
+	}
+
+	@Override
+	public void onPlaylistItemChanged(int index) {
+		WritableMap event = Arguments.createMap();
+		event.putInt("playlistIndex", index);
+		mEventBatcher.dispatch(BridgeEventBatcher.TYPE_PLAYLIST_ITEM, event);
+	}
+
+	@Override
+	public void onLiveLatencyChanged(long latencyMs, long targetLatencyMs) {
+		WritableMap event = Arguments.createMap();
+		event.putDouble("liveLatency", latencyMs);
+		mEventBatcher.dispatch(BridgeEventBatcher.TYPE_LIVE_LATENCY, event);
 	}
 
 	@Override
@@ -58,43 +143,57 @@ public class ReactVideoView extends ExoPlayerView implements ExoPlayer.EventList
 
 	@Override
 	public void onLoadingChanged(boolean isLoading) {
-
+		if (mVideoPlayer != null) {
+			triggerOnBufferChanged(mVideoPlayer.getBufferedPercentage(), true);
+		}
 	}
 
 	@Override
 	public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
-//		switch (playbackState) {
-//			case ExoPlayer.STATE_BUFFERING:
-//				initPlayerPrepared();
-//				if (playWhenReady) {
-//					mPlayerState = VideoPlayerFragment.PLAYER_STATE.prepared;
-//				} else {
-//					mPlayerState = VideoPlayerFragment.PLAYER_STATE.paused;
-//				}
-//				showLoader(true);
-//				break;
-//			case ExoPlayer.STATE_READY:
-//				showLoader(false);
-//				initPlayerPrepared();
-//				triggerOnPositionChanged();
-//				if (playWhenReady) {
-//					mPlayerState = VideoPlayerFragment.PLAYER_STATE.playing;
-//				} else {
-//					mPlayerState = VideoPlayerFragment.PLAYER_STATE.paused;
-//				}
-//				long pos = mVideoPlayer.getCurrentPosition();
-//				break;
-//			case ExoPlayer.STATE_ENDED:
-//				if (playWhenReady) {
-//					mPlayerState = VideoPlayerFragment.PLAYER_STATE.playbackCompleted;
-//				} else {
-//					mPlayerState = VideoPlayerFragment.PLAYER_STATE.stopped;
-//				}
-//				break;
-//			case ExoPlayer.STATE_IDLE:
-//				mPlayerState = VideoPlayerFragment.PLAYER_STATE.initialized;
-//				break;
-//		}
+		switch (playbackState) {
+			case ExoPlayer.STATE_BUFFERING:
+				if (playWhenReady) {
+					mPlayerState = VideoPlayerFragment.PLAYER_STATE.prepared;
+				} else {
+					mPlayerState = VideoPlayerFragment.PLAYER_STATE.paused;
+				}
+				startSampling();
+				break;
+			case ExoPlayer.STATE_READY:
+				if (playWhenReady) {
+					mPlayerState = VideoPlayerFragment.PLAYER_STATE.playing;
+				} else {
+					mPlayerState = VideoPlayerFragment.PLAYER_STATE.paused;
+				}
+				startSampling();
+				break;
+			case ExoPlayer.STATE_ENDED:
+				if (playWhenReady) {
+					mPlayerState = VideoPlayerFragment.PLAYER_STATE.playbackCompleted;
+				} else {
+					mPlayerState = VideoPlayerFragment.PLAYER_STATE.stopped;
+				}
+				stopSampling();
+				if (mVideoPlayer != null) {
+					triggerOnPositionChanged(mVideoPlayer.getCurrentPosition(), mVideoPlayer.getDuration());
+				}
+				break;
+			case ExoPlayer.STATE_IDLE:
+				mPlayerState = VideoPlayerFragment.PLAYER_STATE.initialized;
+				stopSampling();
+				break;
+		}
+		notifyPlayerStateChanged(mPlayerState.name());
+	}
+
+	private void startSampling() {
+		if (mVideoPlayer != null) {
+			PlaybackClock.getInstance().register(mVideoPlayer, this);
+		}
+	}
+
+	private void stopSampling() {
+		PlaybackClock.getInstance().unregister(this);
 	}
 
 	@Override
@@ -116,7 +215,12 @@ public class ReactVideoView extends ExoPlayerView implements ExoPlayer.EventList
 		if (errorString != null) {
 			Log.d(LOG_TAG, "Exo VideoPlayer" + errorString);
 		}
-//		mPlayerState = VideoPlayerFragment.PLAYER_STATE.error;
+		stopSampling();
+		mPlayerState = VideoPlayerFragment.PLAYER_STATE.error;
+		WritableMap event = Arguments.createMap();
+		event.putString("error", errorString != null ? errorString : String.valueOf(e.getCause()));
+		mEventBatcher.dispatch(BridgeEventBatcher.TYPE_ERROR, event);
+		notifyPlayerStateChanged(mPlayerState.name());
 	}
 
 	@Override
@@ -1,17 +1,37 @@
 package com.noriginmedia.react;
 
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.common.MapBuilder;
 import com.facebook.react.uimanager.ReactProp;
 import com.facebook.react.uimanager.SimpleViewManager;
 import com.facebook.react.uimanager.ThemedReactContext;
+import com.google.android.exoplayer2.C;
+import com.noriginmedia.exoplayer.BufferingProfile;
+import com.noriginmedia.exoplayer.ChannelZapper;
+import com.noriginmedia.exoplayer.LiveEdgeTracker;
+import com.noriginmedia.exoplayer.MediaCache;
 import com.noriginmedia.exoplayer.VideoPlayer;
 
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class ReactVideoViewManager extends SimpleViewManager<ReactVideoView> {
 
     public static final String REACT_CLASS = "RCTNMVideo";
 
-	private VideoPlayer mVideoPlayer;
+	public static final int COMMAND_PLAY = 1;
+	public static final int COMMAND_PAUSE = 2;
+	public static final int COMMAND_SEEK = 3;
+	public static final int COMMAND_STOP = 4;
+	public static final int COMMAND_SELECT_AUDIO = 5;
+	public static final int COMMAND_SELECT_SUBTITLE = 6;
+
+	private final PlayerRegistry mPlayerRegistry = new PlayerRegistry();
 
     @Override
     public String getName() {
@@ -20,14 +40,190 @@ public class ReactVideoViewManager extends SimpleViewManager<ReactVideoView> {
 
     @Override
     protected ReactVideoView createViewInstance(ThemedReactContext themedReactContext) {
-		ReactVideoView view = new ReactVideoView(themedReactContext);
-		mVideoPlayer = new VideoPlayer(view, view.getContext());
-        return view;
+        return new ReactVideoView(themedReactContext);
     }
 
+	@Override
+	public void onDropViewInstance(ReactVideoView view) {
+		super.onDropViewInstance(view);
+		view.release();
+		// Hands a pooled player and the decoder back so the next view can reuse them
+		mPlayerRegistry.remove(view);
+	}
+
+	@Override
+	public @Nullable Map<String, Object> getExportedCustomDirectEventTypeConstants() {
+		return MapBuilder.<String, Object>of(BridgeEventBatcher.EVENT_NAME,
+			MapBuilder.of("registrationName", BridgeEventBatcher.REGISTRATION_NAME));
+	}
+
+	@Override
+	public @Nullable Map<String, Integer> getCommandsMap() {
+		return MapBuilder.<String, Integer>builder()
+			.put("play", COMMAND_PLAY)
+			.put("pause", COMMAND_PAUSE)
+			.put("seek", COMMAND_SEEK)
+			.put("stop", COMMAND_STOP)
+			.put("selectAudio", COMMAND_SELECT_AUDIO)
+			.put("selectSubtitle", COMMAND_SELECT_SUBTITLE)
+			.build();
+	}
+
+	/**
+	 * Runs a command on the view's player straight away on the UI thread, without a render pass.
+	 * Seeks that are not final, e.g. while a remote key is held down, are coalesced by the player.
+	 */
+	@Override
+	public void receiveCommand(ReactVideoView view, int commandId, @Nullable ReadableArray args) {
+		VideoPlayer videoPlayer = mPlayerRegistry.get(view);
+		switch (commandId) {
+			case COMMAND_PLAY:
+				videoPlayer.setPlayWhenReady(true);
+				break;
+			case COMMAND_PAUSE:
+				videoPlayer.setPlayWhenReady(false);
+				break;
+			case COMMAND_SEEK:
+				if (args != null && args.size() > 0) {
+					boolean isFinal = args.size() < 2 || args.isNull(1) || args.getBoolean(1);
+					videoPlayer.seekTo((long) args.getDouble(0), isFinal);
+				}
+				break;
+			case COMMAND_STOP:
+				videoPlayer.stop();
+				break;
+			case COMMAND_SELECT_AUDIO:
+			case COMMAND_SELECT_SUBTITLE:
+				int trackType = commandId == COMMAND_SELECT_AUDIO ? C.TRACK_TYPE_AUDIO : C.TRACK_TYPE_TEXT;
+				String language = args != null && args.size() > 0 && !args.isNull(0) ? args.getString(0) : null;
+				videoPlayer.initSelection(trackType, language != null, language);
+				break;
+		}
+	}
+
 	@ReactProp(name = "src")
 	public void setSrc(ReactVideoView view, @Nullable String src) {
-		mVideoPlayer.preparePlayer(src);
+		mPlayerRegistry.setSource(view, TextUtils.isEmpty(src) ? null : src);
+	}
+
+	@ReactProp(name = "drm")
+	public void setDrm(ReactVideoView view, @Nullable ReadableMap drm) {
+		if (drm == null || !drm.hasKey("scheme") || drm.isNull("scheme")) {
+			mPlayerRegistry.setDrm(view, null, null, null);
+			return;
+		}
+		String licenseUrl = drm.hasKey("licenseUrl") && !drm.isNull("licenseUrl") ? drm.getString("licenseUrl") : null;
+		mPlayerRegistry.setDrm(view, drm.getString("scheme"), licenseUrl,
+			ReactVideoModule.getKeyRequestProperties(drm));
+	}
+
+	@ReactProp(name = "playlist")
+	public void setPlaylist(ReactVideoView view, @Nullable ReadableArray playlist) {
+		if (playlist == null || playlist.size() == 0) {
+			mPlayerRegistry.setPlaylist(view, null);
+			return;
+		}
+		List<String> streams = new ArrayList<>(playlist.size());
+		for (int i = 0; i < playlist.size(); i++) {
+			streams.add(playlist.getString(i));
+		}
+		mPlayerRegistry.setPlaylist(view, streams);
+	}
+
+	@ReactProp(name = "resumePosition", defaultBoolean = true)
+	public void setResumePosition(ReactVideoView view, boolean resumePosition) {
+		mPlayerRegistry.get(view).setResumePositionEnabled(resumePosition);
+	}
+
+	@ReactProp(name = "zapNeighbours")
+	public void setZapNeighbours(ReactVideoView view, @Nullable ReadableArray zapNeighbours) {
+		List<String> streams = new ArrayList<>();
+		if (zapNeighbours != null) {
+			for (int i = 0; i < zapNeighbours.size(); i++) {
+				streams.add(zapNeighbours.getString(i));
+			}
+		}
+		mPlayerRegistry.get(view).setZapNeighbours(streams);
+	}
+
+	@ReactProp(name = "zapConfig")
+	public void setZapConfig(ReactVideoView view, @Nullable ReadableMap zapConfig) {
+		long preloadMs = ChannelZapper.DEFAULT_PRELOAD_MS;
+		long memoryBudgetBytes = ChannelZapper.DEFAULT_MEMORY_BUDGET_BYTES;
+		if (zapConfig != null) {
+			preloadMs = getInt(zapConfig, "preloadMs", (int) preloadMs);
+			memoryBudgetBytes = getInt(zapConfig, "memoryBudgetMb", (int) (memoryBudgetBytes / (1024 * 1024)))
+				* 1024L * 1024L;
+		}
+		mPlayerRegistry.get(view).configureZapping(preloadMs, memoryBudgetBytes);
+	}
+
+	@ReactProp(name = "playlistPreloadWindow", defaultInt = VideoPlayer.DEFAULT_PLAYLIST_PRELOAD_WINDOW)
+	public void setPlaylistPreloadWindow(ReactVideoView view, int items) {
+		mPlayerRegistry.get(view).setPlaylistPreloadWindow(items);
+	}
+
+	@ReactProp(name = "mediaCacheSize", defaultInt = 0)
+	public void setMediaCacheSize(ReactVideoView view, int mediaCacheSizeMb) {
+		if (mediaCacheSizeMb > 0) {
+			mPlayerRegistry.get(view).setMediaCache(MediaCache.getInstance(view.getContext(), mediaCacheSizeMb * 1024L * 1024L));
+		} else {
+			mPlayerRegistry.get(view).setMediaCache(null);
+		}
+	}
+
+	@ReactProp(name = "parallelConnections", defaultInt = 0)
+	public void setParallelConnections(ReactVideoView view, int maxConnections) {
+		mPlayerRegistry.get(view).setParallelRangeConnections(maxConnections);
+	}
+
+	@ReactProp(name = "eventThrottle", defaultInt = BridgeEventBatcher.DEFAULT_THROTTLE_MS)
+	public void setEventThrottle(ReactVideoView view, int throttleMs) {
+		view.setEventThrottleInterval(throttleMs);
+	}
+
+	@ReactProp(name = "abrPolicy")
+	public void setAbrPolicy(ReactVideoView view, @Nullable String abrPolicy) {
+		mPlayerRegistry.get(view).setAbrPolicy(abrPolicy);
+	}
+
+	@ReactProp(name = "resolutionCapFactor", defaultFloat = 0f)
+	public void setResolutionCapFactor(ReactVideoView view, float factor) {
+		mPlayerRegistry.get(view).setResolutionCapFactor(factor);
+	}
+
+	@ReactProp(name = "liveTargetLatency", defaultInt = 0)
+	public void setLiveTargetLatency(ReactVideoView view, int targetLatencyMs) {
+		mPlayerRegistry.get(view).setLiveTargetLatency(targetLatencyMs > 0 ? targetLatencyMs : C.TIME_UNSET);
+	}
+
+	@ReactProp(name = "liveMaxDrift", defaultInt = (int) LiveEdgeTracker.DEFAULT_MAX_DRIFT_MS)
+	public void setLiveMaxDrift(ReactVideoView view, int maxDriftMs) {
+		mPlayerRegistry.get(view).setLiveMaxDrift(maxDriftMs);
+	}
+
+	@ReactProp(name = "bufferingProfile")
+	public void setBufferingProfile(ReactVideoView view, @Nullable String bufferingProfile) {
+		mPlayerRegistry.setBufferingProfile(view, BufferingProfile.fromName(bufferingProfile));
+	}
+
+	@ReactProp(name = "bufferConfig")
+	public void setBufferConfig(ReactVideoView view, @Nullable ReadableMap bufferConfig) {
+		if (bufferConfig == null) {
+			mPlayerRegistry.setBufferConfig(view, null);
+			return;
+		}
+		// Missing keys are derived from the given ones and the bufferingProfile
+		mPlayerRegistry.setBufferConfig(view, new int[] {
+			getInt(bufferConfig, "minBufferMs", C.LENGTH_UNSET),
+			getInt(bufferConfig, "maxBufferMs", C.LENGTH_UNSET),
+			getInt(bufferConfig, "bufferForPlaybackMs", C.LENGTH_UNSET),
+			getInt(bufferConfig, "bufferForPlaybackAfterRebufferMs", C.LENGTH_UNSET),
+			getInt(bufferConfig, "segmentSize", C.LENGTH_UNSET)});
+	}
+
+	private static int getInt(ReadableMap map, String key, int defaultValue) {
+		return map.hasKey(key) && !map.isNull(key) ? map.getInt(key) : defaultValue;
 	}
 
 	//TODO add methods for controling the life of the player including creating and destroying it